@@ -0,0 +1,247 @@
+package gvs.access;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Compact binary encoding of a GVS document. The document starts with the
+ * magic "GVSB" and a version byte, followed by tokens:
+ * <ul>
+ * <li>START name: opens an element</li>
+ * <li>ATTRIBUTE name value: adds an attribute to the opened element</li>
+ * <li>TEXT value: content of the opened element</li>
+ * <li>ELEMENT name value: a complete element with content</li>
+ * <li>END: closes the element opened last</li>
+ * </ul>
+ * Names are encoded as index into {@link #NAMES}, starting with 1. Unknown
+ * names are encoded as 0 followed by the name as string. A value starts with
+ * its type: a string is written as varint length and UTF-8 bytes, a number
+ * as zigzag varint, a decimal number as 8 byte IEEE 754 and a constant as
+ * varint ordinal.
+ */
+public class BinaryDocumentWriter implements DocumentEncoder {
+
+  public static final byte[] MAGIC = { 'G', 'V', 'S', 'B' };
+  public static final int VERSION = 2;
+
+  // Tokens
+  public static final int START = 1;
+  public static final int END = 2;
+  public static final int ATTRIBUTE = 3;
+  public static final int TEXT = 4;
+  public static final int ELEMENT = 5;
+
+  // Types of the values
+  public static final int STRING = 0;
+  public static final int NUMBER = 1;
+  public static final int DECIMAL = 2;
+  public static final int CONSTANT = 3;
+
+  /**
+   * Known names. Version 2 added the style table
+   */
+  public static final String[] NAMES = { "GVS", "Graph", "Tree", "Id",
+      "Label", "Vertizes", "Edges", "DefaultVertex", "RelativVertex", "Edge",
+      "XPos", "YPos", "IsDirected", "DrawArrowOnPosition", "FromVertex",
+      "ToVertex", "Linecolor", "Linestyle", "Linethickness", "Fillcolor",
+      "Icon", "Nodes", "DefaultNode", "BinaryNode", "TreeRootId", "Child",
+      "Leftchild", "Rigthchild", "Delta", "RemovedVertizes", "RemovedEdges",
+      "Styles", "Style" };
+
+  private static final Map<String, Integer> CODES = new HashMap<>();
+
+  static {
+    for (int index = 0; index < NAMES.length; index++) {
+      CODES.put(NAMES[index], index + 1);
+    }
+  }
+
+  private final OutputStream outputStream;
+  private final byte[] buffer = new byte[8192];
+  private int position = 0;
+  private int depth = 0;
+  private boolean incremental = false;
+
+  /**
+   * Creates a writer
+   *
+   * @param pOutputStream
+   *          target of the document. It will be flushed, but not closed
+   */
+  public BinaryDocumentWriter(OutputStream pOutputStream) {
+    this.outputStream = pOutputStream;
+  }
+
+  public void startDocument() throws IOException {
+    for (byte magic : MAGIC) {
+      writeByte(magic);
+    }
+    writeByte(VERSION);
+  }
+
+  public void endDocument() throws IOException {
+    while (depth > 0) {
+      endElement();
+    }
+    flush();
+  }
+
+  public void startElement(String pName) throws IOException {
+    writeByte(START);
+    writeName(pName);
+    depth++;
+  }
+
+  public void attribute(String pName, String pValue) throws IOException {
+    writeByte(ATTRIBUTE);
+    writeName(pName);
+    writeString(pValue);
+  }
+
+  public void attribute(String pName, long pValue) throws IOException {
+    writeByte(ATTRIBUTE);
+    writeName(pName);
+    writeNumber(pValue);
+  }
+
+  public void text(String pText) throws IOException {
+    writeByte(TEXT);
+    writeString(pText);
+  }
+
+  public void element(String pName, String pText) throws IOException {
+    writeByte(ELEMENT);
+    writeName(pName);
+    writeString(pText);
+  }
+
+  public void element(String pName, long pValue) throws IOException {
+    writeByte(ELEMENT);
+    writeName(pName);
+    writeNumber(pValue);
+  }
+
+  public void element(String pName, double pValue) throws IOException {
+    writeByte(ELEMENT);
+    writeName(pName);
+    writeByte(DECIMAL);
+    long bits = Double.doubleToLongBits(pValue);
+    for (int shift = 56; shift >= 0; shift -= 8) {
+      writeByte((int) (bits >>> shift));
+    }
+  }
+
+  public void element(String pName, Enum<?> pValue) throws IOException {
+    if (pValue == null) {
+      element(pName, (String) null);
+      return;
+    }
+    writeByte(ELEMENT);
+    writeName(pName);
+    writeByte(CONSTANT);
+    writeVarint(pValue.ordinal());
+  }
+
+  public void endElement() throws IOException {
+    if (depth == 0) {
+      throw new IllegalStateException("No open element");
+    }
+    writeByte(END);
+    depth--;
+  }
+
+  public void setIncremental(boolean pIncremental) {
+    this.incremental = pIncremental;
+  }
+
+  public boolean isIncremental() {
+    return incremental;
+  }
+
+  public DocumentEncoder createFragmentEncoder(OutputStream pOutputStream) {
+    return new BinaryDocumentWriter(pOutputStream);
+  }
+
+  public void writeFragment(byte[] pFragment) throws IOException {
+    if (pFragment.length <= buffer.length - position) {
+      System.arraycopy(pFragment, 0, buffer, position, pFragment.length);
+      position += pFragment.length;
+    } else {
+      outputStream.write(buffer, 0, position);
+      position = 0;
+      outputStream.write(pFragment);
+    }
+  }
+
+  /**
+   * Writes the buffered content to the underlying stream
+   *
+   * @throws IOException
+   */
+  public void flush() throws IOException {
+    outputStream.write(buffer, 0, position);
+    position = 0;
+    outputStream.flush();
+  }
+
+  private void writeName(String pName) throws IOException {
+    Integer code = CODES.get(pName);
+    if (code == null) {
+      writeByte(0);
+      writeString(pName);
+    } else {
+      writeByte(code);
+    }
+  }
+
+  private void writeNumber(long pValue) throws IOException {
+    writeByte(NUMBER);
+    // Zigzag, so small negative numbers are short as well
+    writeVarint((pValue << 1) ^ (pValue >> 63));
+  }
+
+  private void writeString(String pText) throws IOException {
+    writeByte(STRING);
+    if (pText == null) {
+      writeVarint(0);
+      return;
+    }
+    int length = pText.length();
+    boolean ascii = true;
+    for (int index = 0; index < length && ascii; index++) {
+      ascii = pText.charAt(index) < 0x80;
+    }
+    if (ascii) {
+      writeVarint(length);
+      for (int index = 0; index < length; index++) {
+        writeByte(pText.charAt(index));
+      }
+    } else {
+      byte[] bytes = pText.getBytes(StandardCharsets.UTF_8);
+      writeVarint(bytes.length);
+      for (byte data : bytes) {
+        writeByte(data);
+      }
+    }
+  }
+
+  private void writeVarint(long pValue) throws IOException {
+    long value = pValue;
+    while ((value & ~0x7FL) != 0) {
+      writeByte((int) ((value & 0x7F) | 0x80));
+      value >>>= 7;
+    }
+    writeByte((int) value);
+  }
+
+  private void writeByte(int pValue) throws IOException {
+    if (position == buffer.length) {
+      outputStream.write(buffer, 0, position);
+      position = 0;
+    }
+    buffer[position++] = (byte) pValue;
+  }
+}
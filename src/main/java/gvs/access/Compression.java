@@ -0,0 +1,24 @@
+package gvs.access;
+
+/**
+ * Compression of the documents, as negotiated with the GVS-Server
+ */
+public enum Compression {
+  NONE, DEFLATE, GZIP;
+
+  /**
+   * Returns the compression for a name of the handshake
+   *
+   * @param pName
+   *          name as sent by the server
+   * @return the compression, NONE for unknown names
+   */
+  public static Compression of(String pName) {
+    for (Compression compression : values()) {
+      if (compression.name().equalsIgnoreCase(pName)) {
+        return compression;
+      }
+    }
+    return NONE;
+  }
+}
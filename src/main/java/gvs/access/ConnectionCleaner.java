@@ -0,0 +1,95 @@
+package gvs.access;
+
+import java.lang.ref.PhantomReference;
+import java.lang.ref.ReferenceQueue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Releases the connections of graphs and trees, which were not closed. The
+ * graphs and trees are registered with a phantom reference, so they are not
+ * finalizable. Once a graph or tree is unreachable, its action is run by a
+ * background thread.
+ * <p>
+ * The action must not reference the registered graph or tree, otherwise it
+ * never becomes unreachable.
+ */
+public class ConnectionCleaner implements Runnable {
+
+  private static final ConnectionCleaner INSTANCE = new ConnectionCleaner();
+
+  private final ReferenceQueue<Object> queue = new ReferenceQueue<>();
+  // The references have to be reachable until they are enqueued
+  private final Set<Cleanable> registered = ConcurrentHashMap.newKeySet();
+
+  private static final Logger logger = LoggerFactory
+      .getLogger(ConnectionCleaner.class);
+
+  private ConnectionCleaner() {
+    Thread thread = new Thread(this, "GVS-Cleaner");
+    thread.setDaemon(true);
+    thread.start();
+  }
+
+  public static ConnectionCleaner getInstance() {
+    return INSTANCE;
+  }
+
+  /**
+   * Registers an action, which is run once the owner is unreachable, unless
+   * it was run before with {@link Cleanable#clean()}.
+   *
+   * @param pOwner
+   *          the graph or tree
+   * @param pAction
+   *          releases the connection of the owner
+   * @return handle to run the action explicitly
+   */
+  public Cleanable register(Object pOwner, Runnable pAction) {
+    if (pOwner == null || pAction == null) {
+      throw new IllegalArgumentException("Owner and action are required");
+    }
+    Cleanable cleanable = new Cleanable(pOwner, pAction);
+    registered.add(cleanable);
+    return cleanable;
+  }
+
+  public void run() {
+    while (true) {
+      try {
+        Cleanable cleanable = (Cleanable) queue.remove();
+        logger.info("Release connection of an unclosed graph or tree");
+        cleanable.clean();
+      } catch (InterruptedException e) {
+        logger.error("Cleaner thread interrupted", e);
+      } catch (RuntimeException e) {
+        logger.error("Unable to release connection", e);
+      }
+    }
+  }
+
+  /**
+   * Registered action of a graph or tree
+   */
+  public class Cleanable extends PhantomReference<Object> {
+    private final Runnable action;
+
+    private Cleanable(Object pOwner, Runnable pAction) {
+      super(pOwner, queue);
+      this.action = pAction;
+    }
+
+    /**
+     * Runs the action and unregisters it. Further calls have no effect.
+     */
+    public void clean() {
+      if (registered.remove(this)) {
+        clear();
+        action.run();
+      }
+    }
+  }
+}
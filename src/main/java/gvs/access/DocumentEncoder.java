@@ -0,0 +1,156 @@
+package gvs.access;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Encodes a GVS document. The document is described as elements with
+ * attributes and content, the encoder decides about the representation on
+ * the wire. Values are passed typed, so an encoder does not have to parse
+ * them.
+ */
+public interface DocumentEncoder {
+
+  /**
+   * Writes the start of the document
+   *
+   * @throws IOException
+   */
+  void startDocument() throws IOException;
+
+  /**
+   * Closes all open elements and flushes the document
+   *
+   * @throws IOException
+   */
+  void endDocument() throws IOException;
+
+  /**
+   * Opens an element. Attributes can be added until content is written.
+   *
+   * @param pName
+   *          element name
+   * @throws IOException
+   */
+  void startElement(String pName) throws IOException;
+
+  /**
+   * Adds an attribute to the element, which was opened last
+   *
+   * @param pName
+   *          attribute name
+   * @param pValue
+   *          attribute value. Null is written as empty value
+   * @throws IOException
+   */
+  void attribute(String pName, String pValue) throws IOException;
+
+  /**
+   * Adds a numeric attribute, e.g. an id, to the element, which was opened
+   * last
+   *
+   * @param pName
+   *          attribute name
+   * @param pValue
+   *          attribute value
+   * @throws IOException
+   */
+  void attribute(String pName, long pValue) throws IOException;
+
+  /**
+   * Writes text content into the current element
+   *
+   * @param pText
+   *          text. Null is written as empty text
+   * @throws IOException
+   */
+  void text(String pText) throws IOException;
+
+  /**
+   * Writes a complete element with text content
+   *
+   * @param pName
+   *          element name
+   * @param pText
+   *          text content
+   * @throws IOException
+   */
+  void element(String pName, String pText) throws IOException;
+
+  /**
+   * Writes a complete element with a number, e.g. an id
+   *
+   * @param pName
+   *          element name
+   * @param pValue
+   *          content
+   * @throws IOException
+   */
+  void element(String pName, long pValue) throws IOException;
+
+  /**
+   * Writes a complete element with a decimal number, e.g. a position
+   *
+   * @param pName
+   *          element name
+   * @param pValue
+   *          content
+   * @throws IOException
+   */
+  void element(String pName, double pValue) throws IOException;
+
+  /**
+   * Writes a complete element with a style constant
+   *
+   * @param pName
+   *          element name
+   * @param pValue
+   *          content. Null is written as empty content
+   * @throws IOException
+   */
+  void element(String pName, Enum<?> pValue) throws IOException;
+
+  /**
+   * Closes the element, which was opened last
+   *
+   * @throws IOException
+   */
+  void endElement() throws IOException;
+
+  /**
+   * Marks the document as incremental. An incremental document depends on the
+   * previously sent documents and is not sent, if one of them was dropped.
+   *
+   * @param pIncremental
+   *          true, if the document contains only changes
+   */
+  void setIncremental(boolean pIncremental);
+
+  /**
+   * Returns whether the document was marked as incremental
+   *
+   * @return true, if the document contains only changes
+   */
+  boolean isIncremental();
+
+  /**
+   * Creates an encoder of the same kind for a part of the document. The part
+   * consists of complete elements and is encoded without the start of the
+   * document, so parts can be encoded independently of each other.
+   *
+   * @param pOutputStream
+   *          target of the part
+   * @return encoder of the part. endDocument() flushes the part
+   */
+  DocumentEncoder createFragmentEncoder(OutputStream pOutputStream);
+
+  /**
+   * Appends a part, which was encoded by an encoder of
+   * createFragmentEncoder(), to the element opened last
+   *
+   * @param pFragment
+   *          the encoded part
+   * @throws IOException
+   */
+  void writeFragment(byte[] pFragment) throws IOException;
+}
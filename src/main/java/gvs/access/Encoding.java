@@ -0,0 +1,31 @@
+package gvs.access;
+
+import java.io.OutputStream;
+
+/**
+ * Representation of the documents on the wire, as negotiated with the
+ * GVS-Server
+ */
+public enum Encoding {
+  XML {
+    @Override
+    public DocumentEncoder create(OutputStream pOutputStream) {
+      return new XMLDocumentWriter(pOutputStream);
+    }
+  },
+  BINARY {
+    @Override
+    public DocumentEncoder create(OutputStream pOutputStream) {
+      return new BinaryDocumentWriter(pOutputStream);
+    }
+  };
+
+  /**
+   * Creates an encoder for one document
+   *
+   * @param pOutputStream
+   *          target of the document
+   * @return the encoder
+   */
+  public abstract DocumentEncoder create(OutputStream pOutputStream);
+}
@@ -0,0 +1,109 @@
+package gvs.access;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Compresses the documents before they are sent. The compression level
+ * follows the measured write throughput: fast links get fast compression,
+ * slow links get the best compression.
+ * <p>
+ * A write returns as soon as the data is copied into the socket send buffer,
+ * so its duration only reflects the link once the buffer is saturated. The
+ * throughput is therefore only measured for frames larger than the send
+ * buffer. Until such a frame is sent, the level stays at the fastest one. If
+ * the system grows the buffer beyond its reported size, the adaptation
+ * starts later.
+ */
+class FrameCompressor {
+
+  // Bytes per second
+  private static final double FAST_LINK = 100e6;
+  private static final double MEDIUM_LINK = 10e6;
+  private static final double WEIGHT = 0.2;
+  private static final int MEDIUM_LEVEL = 4;
+
+  private final Compression compression;
+  private final Deflater deflater = new Deflater();
+  private final byte[] chunk = new byte[8192];
+  private double throughput = -1;
+  private int level = Deflater.BEST_SPEED;
+
+  FrameCompressor(Compression pCompression) {
+    this.compression = pCompression;
+  }
+
+  /**
+   * Compresses a document with the current level
+   *
+   * @param pData
+   *          encoded document
+   * @param pLength
+   *          length of the document in the array
+   * @return compressed document
+   * @throws IOException
+   */
+  byte[] compress(byte[] pData, int pLength) throws IOException {
+    ByteArrayOutputStream buffer = new ByteArrayOutputStream(
+        pLength / 4 + 64);
+    if (compression == Compression.GZIP) {
+      GZIPOutputStream gzip = new GZIPOutputStream(buffer, chunk.length) {
+        {
+          def.setLevel(level);
+        }
+      };
+      gzip.write(pData, 0, pLength);
+      gzip.close();
+    } else {
+      deflater.reset();
+      deflater.setLevel(level);
+      deflater.setInput(pData, 0, pLength);
+      deflater.finish();
+      while (!deflater.finished()) {
+        int length = deflater.deflate(chunk);
+        buffer.write(chunk, 0, length);
+      }
+    }
+    return buffer.toByteArray();
+  }
+
+  /**
+   * Adapts the level to the duration of a write
+   *
+   * @param pBytes
+   *          number of bytes, which had to wait for the link
+   * @param pNanos
+   *          duration of the write
+   */
+  void adapt(long pBytes, long pNanos) {
+    double current = pBytes * 1e9 / Math.max(pNanos, 1);
+    if (throughput < 0) {
+      throughput = current;
+    } else {
+      throughput = WEIGHT * current + (1 - WEIGHT) * throughput;
+    }
+    if (throughput >= FAST_LINK) {
+      level = Deflater.BEST_SPEED;
+    } else if (throughput >= MEDIUM_LINK) {
+      level = MEDIUM_LEVEL;
+    } else {
+      level = Deflater.BEST_COMPRESSION;
+    }
+  }
+
+  /**
+   * Releases the native resources of the compressor
+   */
+  void end() {
+    deflater.end();
+  }
+
+  /**
+   * @return the current compression level
+   */
+  int getLevel() {
+    return level;
+  }
+}
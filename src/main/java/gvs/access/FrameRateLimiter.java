@@ -0,0 +1,182 @@
+package gvs.access;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Limits the number of documents sent per second. A display inside the
+ * interval of the previous one is skipped before the document is built. The
+ * skipped state is sent with the next display after the interval, with the
+ * trailing send at the end of the interval or with the flush at the
+ * disconnect.
+ */
+public class FrameRateLimiter {
+
+  private static final long NANOS_PER_SECOND = 1000000000L;
+
+  private final Runnable trailingSend;
+  private final LongSupplier clock;
+  private final Scheduler scheduler;
+  private long interval = 0;
+  private long lastFrame = 0;
+  private boolean started = false;
+  private boolean pending = false;
+  private boolean scheduled = false;
+  private long skippedFrames = 0;
+
+  private static final Logger logger = LoggerFactory
+      .getLogger(FrameRateLimiter.class);
+
+  /**
+   * Creates a limiter without trailing send. A skipped state is sent with
+   * the next display or the flush only.
+   */
+  public FrameRateLimiter() {
+    this(null);
+  }
+
+  /**
+   * Creates a limiter, which sends the latest skipped state at the end of
+   * the interval, if no display was sent in between
+   *
+   * @param pTrailingSend
+   *          sends the current state. It is run on a background thread
+   */
+  public FrameRateLimiter(Runnable pTrailingSend) {
+    this(pTrailingSend, System::nanoTime, (pTask, pDelay) -> Background.INSTANCE
+        .schedule(pTask, pDelay, TimeUnit.NANOSECONDS));
+  }
+
+  /**
+   * Creates a limiter with its own time, e.g. for tests
+   *
+   * @param pClock
+   *          current time in nanoseconds
+   * @param pScheduler
+   *          runs the trailing sends
+   */
+  FrameRateLimiter(Runnable pTrailingSend, LongSupplier pClock,
+      Scheduler pScheduler) {
+    this.trailingSend = pTrailingSend;
+    this.clock = pClock;
+    this.scheduler = pScheduler;
+  }
+
+  /**
+   * Sets the maximal number of documents per second
+   *
+   * @param pMaxFramesPerSecond
+   *          maximal number of documents per second. 0 disables the limit
+   */
+  public synchronized void setMaxFramesPerSecond(int pMaxFramesPerSecond) {
+    if (pMaxFramesPerSecond < 0) {
+      throw new IllegalArgumentException(
+          "Frames per second must not be negative");
+    }
+    if (pMaxFramesPerSecond == 0) {
+      interval = 0;
+    } else {
+      interval = NANOS_PER_SECOND / pMaxFramesPerSecond;
+    }
+  }
+
+  /**
+   * Decides whether a document can be sent now
+   *
+   * @return true, if the document has to be built and sent. False, if it is
+   *         skipped
+   */
+  public synchronized boolean tryAcquire() {
+    long now = clock.getAsLong();
+    if (interval > 0 && started && now - lastFrame < interval) {
+      pending = true;
+      skippedFrames++;
+      scheduleTrailingSend(interval - (now - lastFrame));
+      return false;
+    }
+    started = true;
+    lastFrame = now;
+    pending = false;
+    return true;
+  }
+
+  /**
+   * Takes the skipped state, which was not sent yet
+   *
+   * @return true, if the latest display was skipped and has to be sent now
+   */
+  public synchronized boolean flush() {
+    if (!pending) {
+      return false;
+    }
+    lastFrame = clock.getAsLong();
+    pending = false;
+    return true;
+  }
+
+  /**
+   * @return number of skipped displays
+   */
+  public synchronized long getSkippedFrames() {
+    return skippedFrames;
+  }
+
+  /**
+   * Schedules one trailing send per interval. Must be called with the lock.
+   */
+  private void scheduleTrailingSend(long pDelay) {
+    if (trailingSend == null || scheduled) {
+      return;
+    }
+    scheduled = true;
+    scheduler.schedule(this::sendTrailing, pDelay);
+  }
+
+  private void sendTrailing() {
+    synchronized (this) {
+      scheduled = false;
+      if (!pending) {
+        // Sent by a later display or by the flush
+        return;
+      }
+      long now = clock.getAsLong();
+      if (now - lastFrame < interval) {
+        // The interval was extended in the meantime
+        scheduleTrailingSend(interval - (now - lastFrame));
+        return;
+      }
+      lastFrame = now;
+      pending = false;
+    }
+    try {
+      trailingSend.run();
+    } catch (RuntimeException e) {
+      logger.error("Unable to send skipped display", e);
+    }
+  }
+
+  /**
+   * Runs a trailing send after a delay
+   */
+  @FunctionalInterface
+  interface Scheduler {
+    void schedule(Runnable pTask, long pDelayNanos);
+  }
+
+  /**
+   * Thread of the trailing sends, created with the first skipped display
+   */
+  private static class Background {
+    private static final ScheduledExecutorService INSTANCE = Executors
+        .newSingleThreadScheduledExecutor(pRunnable -> {
+          Thread thread = new Thread(pRunnable, "GVS-FrameRate");
+          thread.setDaemon(true);
+          return thread;
+        });
+  }
+}
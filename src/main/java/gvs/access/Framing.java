@@ -0,0 +1,16 @@
+package gvs.access;
+
+/**
+ * Marks the end of a document on the connection to the GVS-Server
+ */
+public enum Framing {
+  /**
+   * Each document is followed by a line with ";". Understood by all servers
+   */
+  SENTINEL,
+  /**
+   * Each document is preceded by its length in bytes as 4 byte big endian
+   * integer. The server does not have to scan for the end of the document
+   */
+  LENGTH_PREFIXED
+}
@@ -0,0 +1,20 @@
+package gvs.access;
+
+/**
+ * Behaviour of an asynchronous display, if the queue of the documents to be
+ * sent is full
+ */
+public enum OverflowPolicy {
+  /**
+   * The caller waits until the writer thread has sent a document
+   */
+  BLOCK,
+  /**
+   * The oldest queued document is dropped
+   */
+  DROP_OLDEST,
+  /**
+   * All queued documents are dropped, only the latest one is sent
+   */
+  COALESCE
+}
@@ -1,21 +1,35 @@
-
 package gvs.access;
 
+import java.io.BufferedOutputStream;
 import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStreamReader;
+import java.io.OutputStream;
 import java.io.PrintStream;
-import java.io.UnsupportedEncodingException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
 import java.net.Socket;
 import java.net.UnknownHostException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
 
+import org.dom4j.Attribute;
 import org.dom4j.Document;
-import org.dom4j.io.XMLWriter;
+import org.dom4j.Element;
+import org.dom4j.Node;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 /**
- * Connection-Class for the GVS. If the Server is busy, the client will exit.
+ * Connection-Class for the GVS. A connection can be shared by several graphs
+ * and trees, which are distinguished by their ids. If the Server is busy,
+ * nothing is sent.
  * 
  * @author mkoller
  */
@@ -23,9 +37,39 @@ public class XMLConnection {
 
   private String serverAdress = "";
   private int serverPort = 0;
+  private SocketChannel channel = null;
   private Socket socket = null;
   private PrintStream outStream = null;
   private BufferedReader inReader = null;
+  private final AtomicLong connectionCount = new AtomicLong();
+  private int queueCapacity = 16;
+  private OverflowPolicy overflowPolicy = OverflowPolicy.BLOCK;
+  private volatile XMLFrameWriter frameWriter = null;
+  private volatile Framing framing = Framing.SENTINEL;
+  private boolean offerCompression = false;
+  private volatile FrameCompressor compressor = null;
+  private boolean offerBinary = false;
+  private volatile Encoding encoding = Encoding.XML;
+  private boolean offerStyleTable = false;
+  private volatile boolean styleTable = false;
+  private volatile boolean delta = false;
+  private volatile CompletableFuture<String> connection = null;
+  private final Set<Long> users = new HashSet<>();
+  // Set, while the last detached graph or tree releases the connection
+  private boolean releasing = false;
+  // Documents of different graphs are written in the order of their arrival
+  private final ReentrantLock writeLock = new ReentrantLock(true);
+  // Documents encoded concurrently, written by the holder of the write lock
+  private final XMLFrameRing ring = new XMLFrameRing(RING_CAPACITY);
+  private final ByteBuffer[] vectors = new ByteBuffer[2 * RING_CAPACITY];
+
+  private static final int BUFFER_SIZE = 64 * 1024;
+  private static final int LENGTH_SIZE = 4;
+  private static final int RING_CAPACITY = 16;
+  private static final String COMPRESS = "compress=";
+  private static final String ENCODING = "encoding=";
+  private static final String STYLES = "styles=";
+  private static final String DELTA = "delta=";
 
   private static final Logger logger = LoggerFactory
       .getLogger(XMLConnection.class);
@@ -33,6 +77,13 @@ public class XMLConnection {
   public XMLConnection(String pServerAdress, int pServerPort) {
     this.serverAdress = pServerAdress;
     this.serverPort = pServerPort;
+    if ("length".equalsIgnoreCase(System.getProperty("GVSFraming"))) {
+      this.framing = Framing.LENGTH_PREFIXED;
+    }
+    this.offerCompression = Boolean.getBoolean("GVSCompression");
+    this.offerBinary = "binary"
+        .equalsIgnoreCase(System.getProperty("GVSEncoding"));
+    this.offerStyleTable = Boolean.getBoolean("GVSStyleTable");
   }
 
   /**
@@ -43,65 +94,624 @@ public class XMLConnection {
    */
   public synchronized String connectToServer() {
     String str = "";
+    if (serverAdress == null) {
+      logger.error("No server configured");
+      return str;
+    }
     try {
       logger.info("Connect to " + serverAdress + " " + serverPort);
-      socket = new Socket(serverAdress, serverPort);
-      outStream = new PrintStream(socket.getOutputStream(), true);
+      channel = SocketChannel.open(new InetSocketAddress(
+          InetAddress.getByName(serverAdress), serverPort));
+      socket = channel.socket();
+      outStream = new PrintStream(
+          new BufferedOutputStream(socket.getOutputStream(), BUFFER_SIZE));
       inReader = new BufferedReader(
           new InputStreamReader(socket.getInputStream()));
-      outStream.println("reserveGVS");
+      String request = "reserveGVS";
+      if (offerCompression) {
+        request += " " + COMPRESS + "deflate,gzip";
+      }
+      if (offerBinary) {
+        request += " " + ENCODING + "binary";
+      }
+      if (offerStyleTable) {
+        request += " " + STYLES + "table";
+      }
+      // Only used by graphs in delta mode, so it is always offered
+      request += " " + DELTA + "true";
+      outStream.println(request);
       outStream.flush();
       str = inReader.readLine();
 
-      if (str.equals("FAILED")) {
-        logger.error("Server busy!!!!!!!! System exit");
+      if (str == null || str.equals("FAILED")) {
+        logger.error("Server busy. Nothing will be sent");
         outStream.close();
         inReader.close();
         socket.close();
-        System.exit(0);
-      } else if (str.equals("OK")) {
+        outStream = null;
+      } else if (str.startsWith("OK")) {
+        connectionCount.incrementAndGet();
+        negotiate(str);
         logger.info("Server is free. Communication are established");
       }
     } catch (UnknownHostException e) {
-      logger.error("Unknown Host. System exit", e);
+      logger.error("Unknown Host", e);
 
     } catch (IOException e) {
       logger.error("No Server found", e);
     }
+    if (str == null || !str.startsWith("OK")) {
+      // The failure is not kept, the next document connects again
+      closeSocket();
+      outStream = null;
+      connection = null;
+    } else if (connection == null) {
+      connection = CompletableFuture.completedFuture(str);
+    }
     return str;
   }
 
   /**
-   * Sends the Xml-Document to the GVS-Server
+   * Connects to the GVS-Server in the background, if it was not done yet or
+   * the last attempt failed
+   *
+   * @return completed with the answer from the server. Empty, if no server
+   *         was found
+   */
+  public synchronized CompletableFuture<String> connectAsync() {
+    if (connection == null) {
+      connection = CompletableFuture.supplyAsync(this::connectToServer);
+    }
+    return connection;
+  }
+
+  /**
+   * Connects to the GVS-Server, if it was not done yet, and waits for the
+   * answer
+   *
+   * @return true, if the server accepted the connection
+   */
+  public boolean ensureConnected() {
+    CompletableFuture<String> current = connection;
+    if (current == null) {
+      current = connectAsync();
+    }
+    String answer = current.join();
+    return answer != null && answer.startsWith("OK");
+  }
+
+  /**
+   * Returns whether the server accepted the connection. It neither connects
+   * nor waits for a connection in the background.
+   *
+   * @return true, if the connection is established
+   */
+  public boolean isConnected() {
+    CompletableFuture<String> current = connection;
+    if (current == null || !current.isDone()
+        || current.isCompletedExceptionally()) {
+      return false;
+    }
+    String answer = current.join();
+    return answer != null && answer.startsWith("OK");
+  }
+
+  /**
+   * Registers a graph or tree, which sends its documents over this
+   * connection
+   *
+   * Waits, while the connection is released by the last detached graph or
+   * tree.
+   *
+   * @param pId
+   *          proposed id of the graph or tree
+   * @return the id to be used. It differs from the proposed one, if another
+   *         graph or tree uses the same id
+   */
+  public synchronized long attach(long pId) {
+    while (releasing) {
+      try {
+        wait();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new IllegalStateException(
+            "Interrupted while the connection is released", e);
+      }
+    }
+    long id = pId;
+    while (!users.add(id)) {
+      id++;
+    }
+    return id;
+  }
+
+  /**
+   * Unregisters a graph or tree after its queued documents are sent. The
+   * connection is released, when the last graph or tree is detached.
+   *
+   * @param pId
+   *          id returned by attach()
+   */
+  public void detach(long pId) {
+    XMLFrameWriter writer = getFrameWriter(false);
+    if (writer != null) {
+      writer.drain();
+    }
+    synchronized (this) {
+      if (!users.remove(pId)) {
+        logger.warn("Not attached: " + pId);
+        return;
+      }
+      if (!users.isEmpty()) {
+        logger.info("Connection still used by " + users.size() + " others");
+        return;
+      }
+      // Checked and marked with the same lock, attach() waits for the release
+      releasing = true;
+    }
+    try {
+      disconnectFromServer();
+    } finally {
+      synchronized (this) {
+        releasing = false;
+        notifyAll();
+      }
+    }
+  }
+
+  /**
+   * Reads the compression, encoding, style table and delta documents
+   * accepted by the server. The answer has the form "OK compress=deflate
+   * encoding=binary styles=table delta=true". A plain "OK" means
+   * uncompressed XML with inline styles and full documents only.
+   *
+   * @param pAnswer
+   *          answer of the server to the reservation
+   */
+  private void negotiate(String pAnswer) {
+    if (compressor != null) {
+      compressor.end();
+      compressor = null;
+    }
+    encoding = Encoding.XML;
+    styleTable = false;
+    delta = false;
+    for (String token : pAnswer.split(" ")) {
+      if (token.equals(STYLES + "table")) {
+        logger.info("Send styles as table");
+        styleTable = true;
+      } else if (token.equals(DELTA + "true")) {
+        logger.info("Send changes of graphs only");
+        delta = true;
+      } else if (token.startsWith(ENCODING)) {
+        String name = token.substring(ENCODING.length());
+        if ("binary".equalsIgnoreCase(name)) {
+          logger.info("Encode documents binary");
+          encoding = Encoding.BINARY;
+        }
+      } else if (token.startsWith(COMPRESS)) {
+        Compression compression = Compression
+            .of(token.substring(COMPRESS.length()));
+        if (compression != Compression.NONE) {
+          logger.info("Compress documents with " + compression);
+          compressor = new FrameCompressor(compression);
+        }
+      }
+    }
+  }
+
+  /**
+   * Sends the Xml-Document to the GVS-Server. It is sent like the documents
+   * of sendDocument(), with the negotiated encoding.
    * 
    * @param pDocument
    */
-  public synchronized void sendFile(Document pDocument) {
-    XMLWriter writer;
+  public void sendFile(Document pDocument) {
+    if (!sendDocument(
+        pWriter -> writeElement(pWriter, pDocument.getRootElement()))) {
+      logger.error("Document not sent");
+    }
+  }
+
+  private static void writeElement(DocumentEncoder pWriter, Element pElement)
+      throws IOException {
+    pWriter.startElement(pElement.getName());
+    for (Attribute attribute : pElement.attributes()) {
+      pWriter.attribute(attribute.getName(), attribute.getValue());
+    }
+    for (Node node : pElement.content()) {
+      if (node instanceof Element) {
+        writeElement(pWriter, (Element) node);
+      } else if (node.getNodeType() == Node.TEXT_NODE
+          || node.getNodeType() == Node.CDATA_SECTION_NODE) {
+        pWriter.text(node.getText());
+      }
+    }
+    pWriter.endElement();
+  }
+
+  /**
+   * Sends a document to the GVS-Server. It is encoded into a reusable buffer
+   * of the ring without building a document tree, concurrently with other
+   * threads. The thread, which holds the socket, writes it together with the
+   * other documents ready at that time. Only complete documents are written,
+   * if the source fails, nothing is sent.
+   *
+   * @param pSource
+   *          writes the content of the document
+   * @return true, if the document was sent
+   */
+  public boolean sendDocument(XMLDocumentSource pSource) {
+    // The encoding is negotiated with the connection
+    ensureConnected();
+    if (getFrameWriter(false) != null) {
+      // Keep the order of the queued documents
+      return sendDocumentAsync(pSource).join();
+    }
+    XMLFrameRing.Slot slot = ring.claim();
+    boolean encoded = false;
+    boolean sent;
+    try {
+      encoded = encode(pSource, slot.getBuffer()) != null;
+    } finally {
+      // The following slots are written after this one
+      ring.publish(slot, encoded);
+      writePendingFrames();
+      sent = ring.await(slot);
+    }
+    return sent;
+  }
+
+  /**
+   * Writes the documents of the ring in the order of their claims, unless
+   * another thread holds the socket. That thread writes them after its own
+   * document.
+   */
+  private void writePendingFrames() {
+    while (ring.hasPublished() && writeLock.tryLock()) {
+      try {
+        int count;
+        while ((count = ring.poll()) > 0) {
+          writeBatch(ring.getBatch(), count);
+        }
+      } finally {
+        writeLock.unlock();
+      }
+    }
+  }
+
+  /**
+   * Writes the documents of consecutive slots and passes the results to
+   * the waiting threads. Uncompressed documents are written at once.
+   */
+  private void writeBatch(XMLFrameRing.Slot[] pSlots, int pCount) {
+    int completed = 0;
     try {
-      writer = new XMLWriter(outStream);
-      writer.write(pDocument);
-      writer.flush();
-      logger.info("Send data");
+      if (outStream == null) {
+        logger.error("Not connected to a server");
+      } else if (compressor != null) {
+        // Each document is compressed on its own
+        for (; completed < pCount; completed++) {
+          XMLFrameRing.Slot slot = pSlots[completed];
+          ring.complete(slot, slot.isValid()
+              && write(slot.getData(), slot.getLength()));
+        }
+      } else {
+        boolean sent = writeUncompressed(pSlots, pCount);
+        for (; completed < pCount; completed++) {
+          ring.complete(pSlots[completed],
+              sent && pSlots[completed].isValid());
+        }
+      }
+    } finally {
+      for (; completed < pCount; completed++) {
+        ring.complete(pSlots[completed], false);
+      }
+    }
+  }
 
-      // Signal end of data
-      outStream.println(";");
-      outStream.flush();
-      logger.info("Finish send data");
+  private boolean writeUncompressed(XMLFrameRing.Slot[] pSlots,
+      int pCount) {
+    logger.info("Send data");
+    try {
+      if (isFramed()) {
+        outStream.flush();
+        // Headers and documents are written with one gathering write
+        int length = 0;
+        for (int index = 0; index < pCount; index++) {
+          if (pSlots[index].isValid()) {
+            vectors[length++] = pSlots[index].getHeader();
+            vectors[length++] = pSlots[index].getContent();
+          }
+        }
+        while (length > 0 && vectors[length - 1].hasRemaining()) {
+          channel.write(vectors, 0, length);
+        }
+      } else {
+        for (int index = 0; index < pCount; index++) {
+          if (pSlots[index].isValid()) {
+            outStream.write(pSlots[index].getData(), 0,
+                pSlots[index].getLength());
+            // Signal end of data
+            outStream.println(";");
+          }
+        }
+        outStream.flush();
+      }
+    } catch (IOException e) {
+      logger.error("No Server found", e);
+      return false;
+    }
+    logger.info("Finish send data");
+    return !outStream.checkError();
+  }
+
+  /**
+   * Encodes a document on the calling thread and hands it over to a
+   * background thread, which sends it to the GVS-Server. The encoded document
+   * is a snapshot, later changes of the model are not sent.
+   *
+   * @param pSource
+   *          writes the content of the document
+   * @return completed with true, if the document was sent, and with false,
+   *         if it was dropped or the transfer failed
+   */
+  public CompletableFuture<Boolean> sendDocumentAsync(
+      XMLDocumentSource pSource) {
+    ensureConnected();
+    XMLFrameWriter writer = getFrameWriter(true);
+    while (true) {
+      XMLFrameWriter.Frame frame = encode(pSource);
+      if (frame == null) {
+        return CompletableFuture.completedFuture(false);
+      }
+      if (writer.offer(frame)) {
+        return frame.getFuture();
+      }
+      logger.debug("Queued documents dropped, encode again");
+    }
+  }
 
-    } catch (UnsupportedEncodingException e) {
-      logger.error("Unsupported encoding", e);
+  /**
+   * Sets the size of the queue and the overflow policy of asynchronous sends
+   *
+   * @param pCapacity
+   *          maximal number of queued documents
+   * @param pPolicy
+   *          behaviour, if the queue is full
+   */
+  public synchronized void setAsyncQueue(int pCapacity,
+      OverflowPolicy pPolicy) {
+    if (pCapacity < 1 || pPolicy == null) {
+      throw new IllegalArgumentException(
+          "Capacity must be positive and a policy is required");
+    }
+    this.queueCapacity = pCapacity;
+    this.overflowPolicy = pPolicy;
+    if (frameWriter != null) {
+      frameWriter.configure(pCapacity, pPolicy);
+    }
+  }
+
+  /**
+   * Sets how the end of a document is marked. The length prefixed framing
+   * has to be supported by the server. It can be set with the property
+   * "-DGVSFraming=length" as well. Compressed and binary documents are always
+   * length prefixed.
+   *
+   * @param pFraming
+   *          framing of the documents
+   */
+  public void setFraming(Framing pFraming) {
+    if (pFraming == null) {
+      throw new IllegalArgumentException("Framing is required");
+    }
+    this.framing = pFraming;
+  }
+
+  /**
+   * Returns whether the server accepted the style table. If so, the styles of
+   * a document are sent once in a table and referenced by their index.
+   *
+   * @return true, if styles are sent as table
+   */
+  public boolean hasStyleTable() {
+    return styleTable;
+  }
+
+  /**
+   * Returns whether the server accepted delta documents. If not, graphs in
+   * delta mode send full documents.
+   *
+   * @return true, if documents may contain only the changes of a graph
+   */
+  public boolean hasDelta() {
+    return delta;
+  }
+
+  /**
+   * Returns the number of established connections. A new number means, that
+   * the server does not know the previously sent data.
+   *
+   * @return number of connections
+   */
+  public long getConnectionCount() {
+    return connectionCount.get();
+  }
+
+  /**
+   * Called, if sent data was dropped or not received. The server does not know
+   * the previously sent data anymore.
+   */
+  void invalidate() {
+    connectionCount.incrementAndGet();
+  }
+
+  /**
+   * Writes an encoded document to the GVS-Server. The writers wait in the
+   * order of their arrival.
+   *
+   * @param pData
+   *          encoded document
+   * @return true, if the document was sent
+   */
+  boolean writeFrame(byte[] pData) {
+    boolean sent;
+    writeLock.lock();
+    try {
+      sent = write(pData, pData.length);
+    } finally {
+      writeLock.unlock();
+    }
+    writePendingFrames();
+    return sent;
+  }
+
+  /**
+   * Must be called with the write lock
+   */
+  private boolean write(byte[] pData, int pLength) {
+    if (outStream == null) {
+      logger.error("Not connected to a server");
+      return false;
+    }
+    logger.info("Send data");
+    try {
+      if (compressor != null) {
+        byte[] compressed = compressor.compress(pData, pLength);
+        long start = System.nanoTime();
+        writeLengthPrefixed(compressed, compressed.length);
+        long nanos = System.nanoTime() - start;
+        // The write returns once the bytes are copied into the send buffer,
+        // only the bytes beyond it had to wait for the link
+        int buffered = socket.getSendBufferSize();
+        if (compressed.length > buffered) {
+          compressor.adapt(compressed.length - buffered, nanos);
+        }
+      } else if (framing == Framing.LENGTH_PREFIXED) {
+        writeLengthPrefixed(pData, pLength);
+      } else {
+        outStream.write(pData, 0, pLength);
+        // Signal end of data
+        outStream.println(";");
+        outStream.flush();
+      }
     } catch (IOException e) {
       logger.error("No Server found", e);
+      return false;
+    }
+    logger.info("Finish send data");
+    return !outStream.checkError();
+  }
+
+  /**
+   * Compressed and binary documents are always length prefixed, since they
+   * may contain the end of data signal
+   */
+  private boolean isFramed() {
+    return framing == Framing.LENGTH_PREFIXED || compressor != null
+        || encoding != Encoding.XML;
+  }
+
+  private void writeLengthPrefixed(byte[] pData, int pLength)
+      throws IOException {
+    outStream.flush();
+    ByteBuffer header = ByteBuffer.allocate(LENGTH_SIZE);
+    header.putInt(pLength);
+    header.flip();
+    // Header and document are written with one gathering write
+    ByteBuffer[] frame = { header, ByteBuffer.wrap(pData, 0, pLength) };
+    while (frame[1].hasRemaining()) {
+      channel.write(frame);
+    }
+  }
+
+  private XMLFrameWriter.Frame encode(XMLDocumentSource pSource) {
+    long connection = getConnectionCount();
+    ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+    DocumentEncoder writer = encode(pSource, buffer);
+    if (writer == null) {
+      return null;
+    }
+    return new XMLFrameWriter.Frame(buffer.toByteArray(), connection,
+        writer.isIncremental());
+  }
+
+  private DocumentEncoder encode(XMLDocumentSource pSource,
+      OutputStream pTarget) {
+    try {
+      DocumentEncoder writer = encoding.create(pTarget);
+      writer.startDocument();
+      pSource.writeDocument(writer);
+      writer.endDocument();
+      return writer;
+    } catch (IOException e) {
+      logger.error("Unable to encode document", e);
+      return null;
     }
+  }
 
+  private void closeSocket() {
+    if (socket == null || socket.isClosed()) {
+      return;
+    }
+    try {
+      socket.close();
+    } catch (IOException e) {
+      logger.error("Unable to close the connection", e);
+    }
+  }
+
+  private XMLFrameWriter getFrameWriter(boolean pCreate) {
+    XMLFrameWriter writer = frameWriter;
+    if (writer != null || !pCreate) {
+      return writer;
+    }
+    synchronized (this) {
+      if (frameWriter == null) {
+        frameWriter = new XMLFrameWriter(this, queueCapacity, overflowPolicy);
+      }
+      return frameWriter;
+    }
   }
 
   /**
    * Disconnect from Server. Must be called to transfer the datas properly
    *
    */
-  public synchronized void disconnectFromServer() {
+  public void disconnectFromServer() {
+    XMLFrameWriter writer;
+    CompletableFuture<String> pending;
+    synchronized (this) {
+      writer = frameWriter;
+      frameWriter = null;
+      pending = connection;
+    }
+    if (writer != null) {
+      // Send the queued documents first
+      writer.close();
+    }
+    if (pending == null) {
+      logger.info("Never connected, nothing to release");
+      return;
+    }
+    // Wait for a connection in the background
+    pending.join();
+    // A document being written is finished before
+    writeLock.lock();
+    try {
+      release();
+    } finally {
+      writeLock.unlock();
+    }
+  }
+
+  private synchronized void release() {
+    if (outStream == null) {
+      logger.error("Not connected to a server");
+      connection = null;
+      return;
+    }
     outStream.println("releaseGVS");
     outStream.flush();
     try {
@@ -113,5 +723,12 @@ public class XMLConnection {
     } catch (IOException e) {
       logger.error("Unable to disconnect from server", e);
     }
+    if (compressor != null) {
+      compressor.end();
+      compressor = null;
+    }
+    // The next document connects again
+    outStream = null;
+    connection = null;
   }
 }
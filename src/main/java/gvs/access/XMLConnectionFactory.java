@@ -0,0 +1,138 @@
+package gvs.access;
+
+import org.dom4j.Document;
+import org.dom4j.DocumentException;
+import org.dom4j.Element;
+import org.dom4j.io.SAXReader;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Creates the connection of the graphs and trees to the GVS-Server. The
+ * server is read once per process from the properties -DGVSPortFile or
+ * -DGVSHost and -DGVSPort. If no properties are set, the default port 3000
+ * and localhost will be applied. -DNoGVS disables the connection.
+ * <p>
+ * All graphs and trees share one connection, so the server is reserved only
+ * once. The connection is not established when it is created, but with the
+ * first display or in the background, if the warm-up is enabled. It is
+ * released, when the last graph or tree is disconnected.
+ */
+public class XMLConnectionFactory {
+
+  private static final XMLConnectionFactory INSTANCE =
+      new XMLConnectionFactory();
+
+  // Config
+  private final String GVSPORTFILE = "GVSPortFile";
+  private final String GVSHOST = "GVSHost";
+  private final String GVSPORT = "GVSPort";
+  private final String NO_GVS = "NoGVS";
+
+  private String host = null;
+  private int port = 0;
+  private boolean resolved = false;
+  private XMLConnection connection = null;
+  private volatile boolean warmUp = false;
+
+  private static final Logger logger = LoggerFactory
+      .getLogger(XMLConnectionFactory.class);
+
+  private XMLConnectionFactory() {
+  }
+
+  public static XMLConnectionFactory getInstance() {
+    return INSTANCE;
+  }
+
+  /**
+   * Returns the shared connection to the server. It is established with the
+   * first document sent. A graph or tree has to attach itself with its id.
+   *
+   * @return the connection
+   */
+  public synchronized XMLConnection createConnection() {
+    if (!resolved) {
+      resolve();
+      resolved = true;
+    }
+    if (connection == null) {
+      connection = new XMLConnection(host, port);
+    }
+    if (warmUp && isEnabled()) {
+      connection.connectAsync();
+    }
+    return connection;
+  }
+
+  /**
+   * Returns whether the connection to the server is enabled. It can be
+   * disabled by the property "-DNoGVS".
+   *
+   * @return false, if nothing should be sent
+   */
+  public boolean isEnabled() {
+    return System.getProperty(NO_GVS) == null;
+  }
+
+  /**
+   * Enables the warm-up. New connections are established in the background
+   * immediately, so the first display does not wait for the server.
+   *
+   * @param pWarmUp
+   *          true to connect in the background
+   */
+  public void setWarmUp(boolean pWarmUp) {
+    this.warmUp = pWarmUp;
+  }
+
+  private void resolve() {
+    String propPortfile = System.getProperty(GVSPORTFILE);
+    String propHost = System.getProperty(GVSHOST);
+    String propPort = System.getProperty(GVSPORT);
+
+    // Set Portfilepath from VM
+    if (propPortfile != null) {
+      SAXReader reader = new SAXReader();
+      logger.info("Load Communication from Portfile");
+      try {
+        // Read Portfile
+        Document document = reader.read(propPortfile);
+        Element docRoot = document.getRootElement();
+        Element eHost = docRoot.element("Host");
+        Element ePort = docRoot.element("Port");
+        if (eHost != null && ePort != null) {
+          host = eHost.getText();
+          port = Integer.parseInt(ePort.getText());
+        } else {
+          logger.error("Host or Port missing in the Portfile");
+        }
+
+      } catch (DocumentException e) {
+        logger.error("Error while Portfile loading", e);
+      }
+    }
+
+    // Set Host and Port from VM
+    else if (propHost != null && propPort != null) {
+      logger.info("Load Communication from Host and Port");
+      try {
+        this.host = propHost;
+        this.port = Integer.parseInt(propPort);
+        logger.info("Host: " + host + " Port: " + port);
+      } catch (Exception ex) {
+        logger.error("Error port or host", ex);
+        this.host = null;
+      }
+
+    }
+
+    // Set Defaultvalues
+    else {
+      logger.info("Set default for host and port");
+      this.host = "127.0.0.1";
+      this.port = 3000;
+      logger.info("host: " + host + " port: " + port);
+    }
+  }
+}
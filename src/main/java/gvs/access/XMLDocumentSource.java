@@ -0,0 +1,20 @@
+package gvs.access;
+
+import java.io.IOException;
+
+/**
+ * Writes the content of a document to a {@link DocumentEncoder}. Used by the
+ * {@link XMLConnection} to encode a document without a document tree.
+ */
+@FunctionalInterface
+public interface XMLDocumentSource {
+
+  /**
+   * Writes the root element and its content
+   * 
+   * @param pWriter
+   *          target of the document
+   * @throws IOException
+   */
+  void writeDocument(DocumentEncoder pWriter) throws IOException;
+}
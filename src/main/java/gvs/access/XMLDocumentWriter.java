@@ -0,0 +1,315 @@
+package gvs.access;
+
+import java.io.BufferedWriter;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.Deque;
+
+/**
+ * Streaming writer for the GVS XML format. Elements are written directly to
+ * the underlying stream, no document tree is held in memory. The output
+ * corresponds to the one of the dom4j XMLWriter with the default format.
+ */
+public class XMLDocumentWriter implements DocumentEncoder {
+
+  private static final String DECLARATION = "<?xml version=\"1.0\" "
+      + "encoding=\"UTF-8\"?>\n";
+
+  private final OutputStream outputStream;
+  private final Writer writer;
+  private final Deque<String> openElements = new ArrayDeque<>();
+  private boolean startTagOpen = false;
+  private boolean incremental = false;
+  private final char[] digits = new char[20];
+
+  /**
+   * Creates a writer, which encodes the document as UTF-8
+   *
+   * @param pOutputStream
+   *          target of the document. It will be flushed, but not closed
+   */
+  public XMLDocumentWriter(OutputStream pOutputStream) {
+    this.outputStream = pOutputStream;
+    // The target is flushed by flush() and endDocument() only, not each time
+    // a fragment is appended
+    OutputStream target = new FilterOutputStream(pOutputStream) {
+      public void write(byte[] pData, int pOffset, int pLength)
+          throws IOException {
+        out.write(pData, pOffset, pLength);
+      }
+
+      public void flush() {
+      }
+    };
+    this.writer = new BufferedWriter(
+        new OutputStreamWriter(target, StandardCharsets.UTF_8));
+  }
+
+  /**
+   * Writes the xml declaration
+   *
+   * @throws IOException
+   */
+  public void startDocument() throws IOException {
+    writer.write(DECLARATION);
+  }
+
+  /**
+   * Closes all open elements and flushes the document
+   *
+   * @throws IOException
+   */
+  public void endDocument() throws IOException {
+    while (!openElements.isEmpty()) {
+      endElement();
+    }
+    flush();
+  }
+
+  /**
+   * Opens an element. Attributes can be added until content is written.
+   *
+   * @param pName
+   *          element name
+   * @throws IOException
+   */
+  public void startElement(String pName) throws IOException {
+    closeStartTag();
+    writer.write('<');
+    writer.write(pName);
+    openElements.push(pName);
+    startTagOpen = true;
+  }
+
+  /**
+   * Adds an attribute to the element, which was opened last
+   *
+   * @param pName
+   *          attribute name
+   * @param pValue
+   *          attribute value. Null is written as empty value
+   * @throws IOException
+   */
+  public void attribute(String pName, String pValue) throws IOException {
+    if (!startTagOpen) {
+      throw new IllegalStateException("Attribute outside of a start tag");
+    }
+    writer.write(' ');
+    writer.write(pName);
+    writer.write("=\"");
+    escape(pValue, true);
+    writer.write('"');
+  }
+
+  /**
+   * Adds a numeric attribute to the element, which was opened last
+   *
+   * @param pName
+   *          attribute name
+   * @param pValue
+   *          attribute value
+   * @throws IOException
+   */
+  public void attribute(String pName, long pValue) throws IOException {
+    if (!startTagOpen) {
+      throw new IllegalStateException("Attribute outside of a start tag");
+    }
+    writer.write(' ');
+    writer.write(pName);
+    writer.write("=\"");
+    writeNumber(pValue);
+    writer.write('"');
+  }
+
+  /**
+   * Writes text content into the current element
+   *
+   * @param pText
+   *          text. Null is written as empty text
+   * @throws IOException
+   */
+  public void text(String pText) throws IOException {
+    closeStartTag();
+    escape(pText, false);
+  }
+
+  /**
+   * Writes a complete element with text content
+   *
+   * @param pName
+   *          element name
+   * @param pText
+   *          text content
+   * @throws IOException
+   */
+  public void element(String pName, String pText) throws IOException {
+    startElement(pName);
+    text(pText);
+    endElement();
+  }
+
+  public void element(String pName, long pValue) throws IOException {
+    startElement(pName);
+    closeStartTag();
+    writeNumber(pValue);
+    endElement();
+  }
+
+  public void element(String pName, double pValue) throws IOException {
+    element(pName, String.valueOf(pValue));
+  }
+
+  /**
+   * Writes a complete element with the name of a constant
+   *
+   * @param pName
+   *          element name
+   * @param pValue
+   *          constant. Null is written as empty text
+   * @throws IOException
+   */
+  public void element(String pName, Enum<?> pValue) throws IOException {
+    if (pValue == null) {
+      element(pName, (String) null);
+    } else {
+      element(pName, pValue.name());
+    }
+  }
+
+  /**
+   * Closes the element, which was opened last. Elements without content are
+   * written as empty elements.
+   *
+   * @throws IOException
+   */
+  public void endElement() throws IOException {
+    String name = openElements.pop();
+    if (startTagOpen) {
+      writer.write("/>");
+      startTagOpen = false;
+    } else {
+      writer.write("</");
+      writer.write(name);
+      writer.write('>');
+    }
+  }
+
+  /**
+   * Flushes the buffered content to the underlying stream
+   *
+   * @throws IOException
+   */
+  public void flush() throws IOException {
+    writer.flush();
+    outputStream.flush();
+  }
+
+  /**
+   * Marks the document as incremental. An incremental document depends on the
+   * previously sent documents and is not sent, if one of them was dropped.
+   *
+   * @param pIncremental
+   *          true, if the document contains only changes
+   */
+  public void setIncremental(boolean pIncremental) {
+    this.incremental = pIncremental;
+  }
+
+  public boolean isIncremental() {
+    return incremental;
+  }
+
+  public DocumentEncoder createFragmentEncoder(OutputStream pOutputStream) {
+    return new XMLDocumentWriter(pOutputStream);
+  }
+
+  /**
+   * Appends a part of the document. The part is already UTF-8 encoded and
+   * written to the underlying stream as it is.
+   *
+   * @param pFragment
+   *          the encoded part
+   * @throws IOException
+   */
+  public void writeFragment(byte[] pFragment) throws IOException {
+    closeStartTag();
+    writer.flush();
+    outputStream.write(pFragment);
+  }
+
+  private void closeStartTag() throws IOException {
+    if (startTagOpen) {
+      writer.write('>');
+      startTagOpen = false;
+    }
+  }
+
+  /**
+   * Writes the decimal digits of a number without creating a string
+   */
+  private void writeNumber(long pValue) throws IOException {
+    if (pValue == Long.MIN_VALUE) {
+      writer.write(String.valueOf(pValue));
+      return;
+    }
+    long value = Math.abs(pValue);
+    int start = digits.length;
+    do {
+      digits[--start] = (char) ('0' + value % 10);
+      value /= 10;
+    } while (value != 0);
+    if (pValue < 0) {
+      digits[--start] = '-';
+    }
+    writer.write(digits, start, digits.length - start);
+  }
+
+  private void escape(String pText, boolean pAttribute) throws IOException {
+    if (pText == null) {
+      return;
+    }
+    int length = pText.length();
+    int start = 0;
+    for (int index = 0; index < length; index++) {
+      String entity = null;
+      char character = pText.charAt(index);
+      switch (character) {
+      case '<':
+        entity = "&lt;";
+        break;
+      case '>':
+        entity = "&gt;";
+        break;
+      case '&':
+        entity = "&amp;";
+        break;
+      case '"':
+        if (pAttribute) {
+          entity = "&quot;";
+        }
+        break;
+      case '\t':
+      case '\n':
+      case '\r':
+        break;
+      default:
+        // Control characters as character references, like dom4j
+        if (character < ' ') {
+          entity = "&#" + (int) character + ";";
+        }
+        break;
+      }
+      if (entity != null) {
+        writer.write(pText, start, index - start);
+        writer.write(entity);
+        start = index + 1;
+      }
+    }
+    writer.write(pText, start, length - start);
+  }
+}
@@ -0,0 +1,216 @@
+package gvs.access;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Preallocated ring of reusable document buffers between the displaying
+ * threads and the writer of the socket. Slots are claimed without locking by
+ * any number of threads. They are consumed in the order of their claims by
+ * one thread at a time, which takes all consecutive published slots at once.
+ * <p>
+ * A producer claims a slot, encodes its document into the buffer of the slot
+ * and publishes it. It waits until the document is written and frees the
+ * slot afterwards. If all slots are in use, producers wait until one is
+ * freed. The buffers grow to the largest document and are kept.
+ */
+class XMLFrameRing {
+
+  // Waiting time for a free slot, if all slots are in use
+  private static final long WAIT_NANOS = 50000;
+
+  private final Slot[] slots;
+  private final Slot[] batch;
+  private final int mask;
+  private final AtomicLong claimed = new AtomicLong();
+  // Next sequence to be consumed, changed by the consumer only
+  private volatile long consumed = 0;
+
+  /**
+   * @param pCapacity
+   *          number of slots, a power of two
+   */
+  XMLFrameRing(int pCapacity) {
+    if (pCapacity < 1 || Integer.bitCount(pCapacity) != 1) {
+      throw new IllegalArgumentException(
+          "Capacity must be a positive power of two");
+    }
+    this.slots = new Slot[pCapacity];
+    this.batch = new Slot[pCapacity];
+    this.mask = pCapacity - 1;
+    for (int index = 0; index < pCapacity; index++) {
+      slots[index] = new Slot(index);
+    }
+  }
+
+  /**
+   * Claims the next slot. Waits, if all slots are in use.
+   *
+   * @return the slot with an empty buffer
+   */
+  Slot claim() {
+    long sequence = claimed.getAndIncrement();
+    Slot slot = slots[(int) sequence & mask];
+    while (slot.free != sequence) {
+      LockSupport.parkNanos(this, WAIT_NANOS);
+    }
+    slot.sequence = sequence;
+    slot.valid = false;
+    slot.waiter = Thread.currentThread();
+    slot.buffer.reset();
+    return slot;
+  }
+
+  /**
+   * Hands a claimed slot over to the consumer. A slot has to be published,
+   * even if its document could not be encoded, since the following slots
+   * are consumed after it.
+   *
+   * @param pSlot
+   *          the claimed slot
+   * @param pValid
+   *          false, if the buffer does not contain a complete document
+   */
+  void publish(Slot pSlot, boolean pValid) {
+    pSlot.valid = pValid;
+    pSlot.published = pSlot.sequence;
+  }
+
+  /**
+   * Waits until the document of a published slot is written and frees the
+   * slot
+   *
+   * @param pSlot
+   *          the published slot
+   * @return true, if the document was sent
+   */
+  boolean await(Slot pSlot) {
+    long sequence = pSlot.sequence;
+    while (pSlot.done != sequence) {
+      LockSupport.park(this);
+    }
+    boolean sent = pSlot.sent;
+    pSlot.free = sequence + slots.length;
+    return sent;
+  }
+
+  /**
+   * @return true, if the next slot to be consumed is published
+   */
+  boolean hasPublished() {
+    long next = consumed;
+    return slots[(int) next & mask].published == next;
+  }
+
+  /**
+   * Takes the consecutive published slots. Must be called by one thread at
+   * a time, which completes the slots before the next poll.
+   *
+   * @return number of slots in {@link #getBatch()}
+   */
+  int poll() {
+    long next = consumed;
+    int count = 0;
+    while (count < batch.length) {
+      Slot slot = slots[(int) (next + count) & mask];
+      if (slot.published != next + count) {
+        break;
+      }
+      batch[count++] = slot;
+    }
+    consumed = next + count;
+    return count;
+  }
+
+  /**
+   * @return the slots taken by the last poll
+   */
+  Slot[] getBatch() {
+    return batch;
+  }
+
+  /**
+   * Passes the result of a consumed slot to its producer
+   *
+   * @param pSlot
+   *          a slot taken by the last poll
+   * @param pSent
+   *          true, if the document was sent
+   */
+  void complete(Slot pSlot, boolean pSent) {
+    Thread waiter = pSlot.waiter;
+    pSlot.waiter = null;
+    pSlot.sent = pSent;
+    pSlot.done = pSlot.sequence;
+    LockSupport.unpark(waiter);
+  }
+
+  /**
+   * Reusable buffer of a document
+   */
+  static class Slot {
+    private final Buffer buffer = new Buffer();
+    private final ByteBuffer header = ByteBuffer.allocate(4);
+    private ByteBuffer content = ByteBuffer.wrap(new byte[0]);
+    private long sequence;
+    private boolean valid;
+    private boolean sent;
+    private Thread waiter;
+    private volatile long free;
+    private volatile long published = -1;
+    private volatile long done = -1;
+
+    Slot(int pIndex) {
+      this.free = pIndex;
+    }
+
+    ByteArrayOutputStream getBuffer() {
+      return buffer;
+    }
+
+    boolean isValid() {
+      return valid;
+    }
+
+    byte[] getData() {
+      return buffer.data();
+    }
+
+    int getLength() {
+      return buffer.size();
+    }
+
+    /**
+     * @return the length of the document, ready to be written
+     */
+    ByteBuffer getHeader() {
+      header.clear();
+      header.putInt(buffer.size());
+      header.flip();
+      return header;
+    }
+
+    /**
+     * @return the document, ready to be written
+     */
+    ByteBuffer getContent() {
+      if (content.array() != buffer.data()) {
+        content = ByteBuffer.wrap(buffer.data());
+      }
+      content.clear();
+      content.limit(buffer.size());
+      return content;
+    }
+  }
+
+  /**
+   * Buffer, which exposes its array instead of copying it
+   */
+  private static class Buffer extends ByteArrayOutputStream {
+    byte[] data() {
+      return buf;
+    }
+  }
+}
@@ -0,0 +1,196 @@
+package gvs.access;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.CompletableFuture;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Background thread, which writes encoded documents to the GVS-Server. The
+ * documents are handed over through a bounded queue. If the queue is full,
+ * the overflow policy decides, whether the caller waits or queued documents
+ * are dropped.
+ */
+class XMLFrameWriter implements Runnable {
+
+  private static final Logger logger = LoggerFactory
+      .getLogger(XMLFrameWriter.class);
+
+  private final XMLConnection connection;
+  private final Deque<Frame> queue = new ArrayDeque<>();
+  private final Object lock = new Object();
+  private final Thread thread;
+  private int capacity;
+  private OverflowPolicy policy;
+  private boolean closed = false;
+  private boolean writing = false;
+
+  XMLFrameWriter(XMLConnection pConnection, int pCapacity,
+      OverflowPolicy pPolicy) {
+    this.connection = pConnection;
+    this.capacity = pCapacity;
+    this.policy = pPolicy;
+    this.thread = new Thread(this, "GVS-Writer");
+    this.thread.setDaemon(true);
+    this.thread.start();
+  }
+
+  void configure(int pCapacity, OverflowPolicy pPolicy) {
+    synchronized (lock) {
+      this.capacity = pCapacity;
+      this.policy = pPolicy;
+      lock.notifyAll();
+    }
+  }
+
+  /**
+   * Queues a document. Dropped documents are completed with false.
+   *
+   * @param pFrame
+   *          encoded document
+   * @return false, if the document depends on a dropped document and has to
+   *         be encoded again
+   */
+  boolean offer(Frame pFrame) {
+    synchronized (lock) {
+      if (closed) {
+        logger.error("Connection is closed");
+        pFrame.future.complete(false);
+        return true;
+      }
+      while (queue.size() >= capacity) {
+        switch (policy) {
+        case DROP_OLDEST:
+          drop(queue.poll());
+          break;
+        case COALESCE:
+          while (!queue.isEmpty()) {
+            drop(queue.poll());
+          }
+          break;
+        default:
+          try {
+            lock.wait();
+          } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            pFrame.future.complete(false);
+            return true;
+          }
+          break;
+        }
+      }
+      if (isStale(pFrame)) {
+        return false;
+      }
+      queue.add(pFrame);
+      lock.notifyAll();
+      return true;
+    }
+  }
+
+  /**
+   * Waits until the queued documents are sent
+   */
+  void drain() {
+    synchronized (lock) {
+      while (!queue.isEmpty() || writing) {
+        try {
+          lock.wait();
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+          logger.error("Interrupted while sending the queued documents", e);
+          return;
+        }
+      }
+    }
+  }
+
+  /**
+   * Sends the queued documents and stops the thread
+   */
+  void close() {
+    synchronized (lock) {
+      closed = true;
+      lock.notifyAll();
+    }
+    try {
+      thread.join();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      logger.error("Interrupted while sending the queued documents", e);
+    }
+  }
+
+  @Override
+  public void run() {
+    while (true) {
+      Frame frame;
+      synchronized (lock) {
+        while (queue.isEmpty() && !closed) {
+          try {
+            lock.wait();
+          } catch (InterruptedException e) {
+            logger.error("Writer thread interrupted", e);
+            closed = true;
+          }
+        }
+        frame = queue.poll();
+        if (frame == null) {
+          return;
+        }
+        writing = true;
+        lock.notifyAll();
+      }
+      boolean sent = false;
+      if (!isStale(frame)) {
+        sent = connection.writeFrame(frame.data);
+        if (!sent) {
+          connection.invalidate();
+        }
+      }
+      frame.future.complete(sent);
+      synchronized (lock) {
+        writing = false;
+        lock.notifyAll();
+      }
+    }
+  }
+
+  private void drop(Frame pFrame) {
+    logger.debug("Queue full, drop document");
+    connection.invalidate();
+    pFrame.future.complete(false);
+  }
+
+  private boolean isStale(Frame pFrame) {
+    return pFrame.incremental
+        && pFrame.connection != connection.getConnectionCount();
+  }
+
+  /**
+   * Encoded document, which is waiting to be sent
+   */
+  static class Frame {
+    private final byte[] data;
+    private final long connection;
+    private final boolean incremental;
+    private final CompletableFuture<Boolean> future;
+
+    Frame(byte[] pData, long pConnection, boolean pIncremental) {
+      this.data = pData;
+      this.connection = pConnection;
+      this.incremental = pIncremental;
+      this.future = new CompletableFuture<>();
+    }
+
+    byte[] getData() {
+      return data;
+    }
+
+    CompletableFuture<Boolean> getFuture() {
+      return future;
+    }
+  }
+}
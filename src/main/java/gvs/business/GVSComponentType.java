@@ -0,0 +1,54 @@
+package gvs.business;
+
+import gvs.business.graph.GVSDefaultVertex;
+import gvs.business.graph.GVSDirectedEdge;
+import gvs.business.graph.GVSRelativeVertex;
+import gvs.business.graph.GVSUndirectedEdge;
+import gvs.business.tree.GVSBinaryTreeNode;
+import gvs.business.tree.GVSDefaultTreeNode;
+
+/**
+ * Kind of a GVS component. The kind of a class is resolved once and cached,
+ * so the dispatch of an element does not allocate. Interfaces implemented
+ * over a superclass are recognized as well.
+ */
+public enum GVSComponentType {
+  DIRECTED_EDGE, UNDIRECTED_EDGE, RELATIVE_VERTEX, DEFAULT_VERTEX, BINARY_NODE,
+  DEFAULT_NODE, UNKNOWN;
+
+  private static final ClassValue<GVSComponentType> TYPES = new ClassValue<
+      GVSComponentType>() {
+    @Override
+    protected GVSComponentType computeValue(Class<?> pType) {
+      if (GVSDirectedEdge.class.isAssignableFrom(pType)) {
+        return DIRECTED_EDGE;
+      } else if (GVSUndirectedEdge.class.isAssignableFrom(pType)) {
+        return UNDIRECTED_EDGE;
+      } else if (GVSRelativeVertex.class.isAssignableFrom(pType)) {
+        return RELATIVE_VERTEX;
+      } else if (GVSDefaultVertex.class.isAssignableFrom(pType)) {
+        return DEFAULT_VERTEX;
+      } else if (GVSBinaryTreeNode.class.isAssignableFrom(pType)) {
+        return BINARY_NODE;
+      } else if (GVSDefaultTreeNode.class.isAssignableFrom(pType)) {
+        return DEFAULT_NODE;
+      } else {
+        return UNKNOWN;
+      }
+    }
+  };
+
+  /**
+   * Returns the kind of a component
+   *
+   * @param pComponent
+   *          the component
+   * @return the kind. UNKNOWN for null and classes without GVS interface
+   */
+  public static GVSComponentType of(Object pComponent) {
+    if (pComponent == null) {
+      return UNKNOWN;
+    }
+    return TYPES.get(pComponent.getClass());
+  }
+}
@@ -0,0 +1,176 @@
+package gvs.business;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+
+import gvs.access.DocumentEncoder;
+
+/**
+ * Encoded elements of the last displays. An element is encoded once, its
+ * fragment is appended to the following documents until the element is
+ * marked as dirty. Fragments, which were not written since the last sweep,
+ * are removed by {@link #sweep()}.
+ * <p>
+ * The fragments are indexed by the ids of the elements. Elements with
+ * different ids can be written concurrently, if the capacity was reserved
+ * with {@link #begin(DocumentEncoder, int)}.
+ */
+public class GVSFragmentCache {
+
+  private static final int INITIAL_CAPACITY = 64;
+
+  private Fragment[] fragments = new Fragment[INITIAL_CAPACITY];
+  // Encoder of the fragments, reused for all elements of a thread
+  private final ThreadLocal<Scratch> scratches = new ThreadLocal<>();
+  private Class<?> encoderType = null;
+  private int generation = 1;
+
+  /**
+   * Builds the element of a fragment
+   */
+  public interface Builder {
+    /**
+     * @return false, if the element was dropped
+     */
+    boolean build(DocumentEncoder pWriter) throws IOException;
+  }
+
+  /**
+   * Prepares the cache for a document. The fragments are dropped, if the
+   * document is encoded differently than the last one.
+   *
+   * @param pWriter
+   *          encoder of the document
+   * @param pLastId
+   *          the highest id of the elements to be written
+   */
+  public void begin(DocumentEncoder pWriter, int pLastId) {
+    if (pWriter.getClass() != encoderType) {
+      encoderType = pWriter.getClass();
+      Arrays.fill(fragments, null);
+    }
+    reserve(pLastId);
+  }
+
+  /**
+   * Appends the fragment of an element. The element is encoded, if it is not
+   * cached yet or if its version changed.
+   *
+   * @param pWriter
+   *          target of the fragment
+   * @param pId
+   *          id of the element
+   * @param pVersion
+   *          values of the element, which are not part of its state, e.g.
+   *          the index of its style in the style table
+   * @param pBuilder
+   *          encodes the element
+   * @return false, if the element was dropped by the builder
+   * @throws IOException
+   */
+  public boolean write(DocumentEncoder pWriter, int pId, int pVersion,
+      Builder pBuilder) throws IOException {
+    reserve(pId);
+    Fragment fragment = fragments[pId];
+    if (fragment == null || fragment.version != pVersion) {
+      Scratch scratch = scratchOf(pWriter);
+      boolean built;
+      try {
+        built = pBuilder.build(scratch.encoder);
+        scratch.encoder.endDocument();
+      } catch (IOException | RuntimeException e) {
+        // The encoder may have open elements
+        scratches.remove();
+        throw e;
+      }
+      if (!built) {
+        return false;
+      }
+      fragment = new Fragment(scratch.buffer.toByteArray(), pVersion);
+      fragments[pId] = fragment;
+    }
+    fragment.generation = generation;
+    pWriter.writeFragment(fragment.data);
+    return true;
+  }
+
+  /**
+   * Forgets the fragment of an element
+   *
+   * @param pId
+   *          id of the changed element. 0 is ignored
+   */
+  public void markDirty(int pId) {
+    if (pId < fragments.length) {
+      fragments[pId] = null;
+    }
+  }
+
+  /**
+   * Forgets all fragments
+   */
+  public void markAllDirty() {
+    Arrays.fill(fragments, null);
+  }
+
+  /**
+   * Removes all fragments, which were not written since the last sweep
+   */
+  public void sweep() {
+    for (int id = 0; id < fragments.length; id++) {
+      if (fragments[id] != null && fragments[id].generation != generation) {
+        fragments[id] = null;
+      }
+    }
+    generation++;
+  }
+
+  private Scratch scratchOf(DocumentEncoder pWriter) {
+    Scratch scratch = scratches.get();
+    if (scratch == null || scratch.type != pWriter.getClass()) {
+      scratch = new Scratch(pWriter);
+      scratches.set(scratch);
+    }
+    scratch.buffer.reset();
+    return scratch;
+  }
+
+  private void reserve(int pId) {
+    if (pId >= fragments.length) {
+      int capacity = fragments.length;
+      while (pId >= capacity) {
+        capacity *= 2;
+      }
+      fragments = Arrays.copyOf(fragments, capacity);
+    }
+  }
+
+  /**
+   * Buffer and encoder of the fragments
+   */
+  private static class Scratch {
+    private final Class<?> type;
+    private final ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+    private final DocumentEncoder encoder;
+
+    Scratch(DocumentEncoder pWriter) {
+      this.type = pWriter.getClass();
+      this.encoder = pWriter.createFragmentEncoder(buffer);
+    }
+  }
+
+  /**
+   * Encoded element
+   */
+  private static class Fragment {
+    private final byte[] data;
+    private final int version;
+    private int generation;
+
+    Fragment(byte[] pData, int pVersion) {
+      this.data = pData;
+      this.version = pVersion;
+    }
+  }
+}
@@ -0,0 +1,181 @@
+package gvs.business;
+
+/**
+ * Hands out the ids of the elements sent to the server. The elements are
+ * identified by reference, so overridden or colliding hashCode() methods do
+ * not matter. The ids are dense, increase monotonically and stay the same
+ * over all displays of a session.
+ * <p>
+ * The registry is an open addressing hash table with linear probing over
+ * primitive arrays. Elements, which were not used since the last sweep, are
+ * removed by {@link #sweep()}.
+ */
+public class GVSIdRegistry {
+
+  private static final int INITIAL_CAPACITY = 64;
+
+  private Object[] elements;
+  private int[] ids;
+  private int[] marks;
+  private int size = 0;
+  private int nextId = 1;
+  private int generation = 1;
+
+  public GVSIdRegistry() {
+    allocate(INITIAL_CAPACITY);
+  }
+
+  /**
+   * Returns the id of an element. A new element gets the next free id. The
+   * element is marked as used for the next sweep. For elements, which are
+   * already marked, nothing is written, so they can be looked up
+   * concurrently.
+   *
+   * @param pElement
+   *          the element, not null
+   * @return id of the element
+   */
+  public int idOf(Object pElement) {
+    int mask = elements.length - 1;
+    int slot = slotOf(pElement, mask);
+    while (elements[slot] != null) {
+      if (elements[slot] == pElement) {
+        if (marks[slot] != generation) {
+          marks[slot] = generation;
+        }
+        return ids[slot];
+      }
+      slot = (slot + 1) & mask;
+    }
+    int id = nextId++;
+    elements[slot] = pElement;
+    ids[slot] = id;
+    marks[slot] = generation;
+    size++;
+    if (size * 2 > elements.length) {
+      rehash(elements.length * 2, false);
+    }
+    return id;
+  }
+
+  /**
+   * Returns the id of a registered element without marking it
+   *
+   * @param pElement
+   *          the element
+   * @return id of the element, 0 if it is not registered
+   */
+  public int find(Object pElement) {
+    int mask = elements.length - 1;
+    int slot = slotOf(pElement, mask);
+    while (elements[slot] != null) {
+      if (elements[slot] == pElement) {
+        return ids[slot];
+      }
+      slot = (slot + 1) & mask;
+    }
+    return 0;
+  }
+
+  /**
+   * Removes an element, e.g. one removed from the graph between two sweeps.
+   * Its id is not reused.
+   *
+   * @param pElement
+   *          the element
+   */
+  public void remove(Object pElement) {
+    int mask = elements.length - 1;
+    int gap = slotOf(pElement, mask);
+    while (elements[gap] != pElement) {
+      if (elements[gap] == null) {
+        return;
+      }
+      gap = (gap + 1) & mask;
+    }
+    // Following elements of the probe sequence are moved into the gap, if it
+    // lies between their home slot and their slot
+    int slot = (gap + 1) & mask;
+    while (elements[slot] != null) {
+      int home = slotOf(elements[slot], mask);
+      if (((slot - home) & mask) >= ((slot - gap) & mask)) {
+        elements[gap] = elements[slot];
+        ids[gap] = ids[slot];
+        marks[gap] = marks[slot];
+        gap = slot;
+      }
+      slot = (slot + 1) & mask;
+    }
+    elements[gap] = null;
+    size--;
+  }
+
+  /**
+   * @return the highest id handed out so far
+   */
+  public int getLastId() {
+    return nextId - 1;
+  }
+
+  /**
+   * Removes all elements, which were not used since the last sweep. Their
+   * ids are not reused.
+   */
+  public void sweep() {
+    int used = 0;
+    for (int slot = 0; slot < elements.length; slot++) {
+      if (elements[slot] != null && marks[slot] == generation) {
+        used++;
+      }
+    }
+    if (used < size) {
+      int capacity = INITIAL_CAPACITY;
+      while (used * 2 > capacity) {
+        capacity *= 2;
+      }
+      rehash(capacity, true);
+    }
+    generation++;
+  }
+
+  /**
+   * @return number of registered elements
+   */
+  public int size() {
+    return size;
+  }
+
+  private void rehash(int pCapacity, boolean pUsedOnly) {
+    Object[] oldElements = elements;
+    int[] oldIds = ids;
+    int[] oldMarks = marks;
+    allocate(pCapacity);
+    int mask = pCapacity - 1;
+    for (int old = 0; old < oldElements.length; old++) {
+      Object element = oldElements[old];
+      if (element == null || pUsedOnly && oldMarks[old] != generation) {
+        continue;
+      }
+      int slot = slotOf(element, mask);
+      while (elements[slot] != null) {
+        slot = (slot + 1) & mask;
+      }
+      elements[slot] = element;
+      ids[slot] = oldIds[old];
+      marks[slot] = oldMarks[old];
+      size++;
+    }
+  }
+
+  private void allocate(int pCapacity) {
+    elements = new Object[pCapacity];
+    ids = new int[pCapacity];
+    marks = new int[pCapacity];
+    size = 0;
+  }
+
+  private static int slotOf(Object pElement, int pMask) {
+    int hash = System.identityHashCode(pElement) * 0x9E3779B9;
+    return (hash ^ (hash >>> 16)) & pMask;
+  }
+}
@@ -0,0 +1,158 @@
+package gvs.business;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+import java.util.stream.IntStream;
+
+import gvs.business.styles.GVSStyle;
+
+/**
+ * Remembers the labels and styles of the elements. They are evaluated once
+ * and reused for all following displays, until the element is marked as
+ * dirty. Elements, which were not evaluated since the last sweep, are
+ * removed by {@link #sweep()}.
+ * <p>
+ * The labels and styles of new and dirty elements can be evaluated in
+ * parallel on the common ForkJoinPool. The element methods have to be
+ * thread-safe then.
+ */
+public class GVSLabelCache {
+
+  // Below, the evaluation is not worth the parallelization
+  private static final int PARALLEL_THRESHOLD = 64;
+
+  private final Map<Object, Entry> entries = new IdentityHashMap<>();
+  private boolean parallel = false;
+  private int generation = 1;
+
+  /**
+   * @param pParallel
+   *          true to evaluate new and dirty elements in parallel
+   */
+  public void setParallel(boolean pParallel) {
+    this.parallel = pParallel;
+  }
+
+  /**
+   * Evaluates the labels and styles of the new and dirty elements. The
+   * elements are marked as used for the next sweep.
+   *
+   * @param pElements
+   *          the elements. Null elements are ignored
+   * @param pLabel
+   *          returns the label of an element
+   * @param pStyle
+   *          returns the style of an element
+   */
+  public <T> void evaluate(Collection<? extends T> pElements,
+      Function<? super T, String> pLabel,
+      Function<? super T, GVSStyle> pStyle) {
+    List<T> missing = new ArrayList<>();
+    for (T element : pElements) {
+      if (element == null) {
+        continue;
+      }
+      Entry entry = entries.get(element);
+      if (entry == null) {
+        missing.add(element);
+      } else {
+        entry.generation = generation;
+      }
+    }
+    if (missing.isEmpty()) {
+      return;
+    }
+
+    String[] labels = new String[missing.size()];
+    GVSStyle[] styles = new GVSStyle[missing.size()];
+    IntStream indexes = IntStream.range(0, missing.size());
+    if (parallel && missing.size() >= PARALLEL_THRESHOLD) {
+      indexes = indexes.parallel();
+    }
+    indexes.forEach(index -> {
+      labels[index] = pLabel.apply(missing.get(index));
+      styles[index] = pStyle.apply(missing.get(index));
+    });
+    for (int index = 0; index < labels.length; index++) {
+      entries.put(missing.get(index),
+          new Entry(labels[index], styles[index], generation));
+    }
+  }
+
+  /**
+   * @param pElement
+   *          an evaluated element
+   * @return the label of the element, may be null
+   */
+  public String labelOf(Object pElement) {
+    return entryOf(pElement).label;
+  }
+
+  /**
+   * @param pElement
+   *          an evaluated element
+   * @return the style of the element, may be null
+   */
+  public GVSStyle styleOf(Object pElement) {
+    return entryOf(pElement).style;
+  }
+
+  /**
+   * Forgets the label and style of an element. They are evaluated again with
+   * the next display.
+   *
+   * @param pElement
+   *          the changed element
+   */
+  public void markDirty(Object pElement) {
+    entries.remove(pElement);
+  }
+
+  /**
+   * Forgets the labels and styles of all elements
+   */
+  public void markAllDirty() {
+    entries.clear();
+  }
+
+  /**
+   * Removes all elements, which were not evaluated since the last sweep
+   */
+  public void sweep() {
+    Iterator<Entry> entryIt = entries.values().iterator();
+    while (entryIt.hasNext()) {
+      if (entryIt.next().generation != generation) {
+        entryIt.remove();
+      }
+    }
+    generation++;
+  }
+
+  private Entry entryOf(Object pElement) {
+    Entry entry = entries.get(pElement);
+    if (entry == null) {
+      throw new IllegalStateException("Element was not evaluated");
+    }
+    return entry;
+  }
+
+  /**
+   * Evaluated label and style of an element
+   */
+  private static class Entry {
+    private final String label;
+    private final GVSStyle style;
+    private int generation;
+
+    Entry(String pLabel, GVSStyle pStyle, int pGeneration) {
+      this.label = pLabel;
+      this.style = pStyle;
+      this.generation = pGeneration;
+    }
+  }
+}
@@ -0,0 +1,386 @@
+package gvs.business.graph;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import gvs.access.ConnectionCleaner;
+import gvs.access.DocumentEncoder;
+import gvs.access.XMLConnection;
+import gvs.access.XMLConnectionFactory;
+import gvs.business.styles.GVSStyle;
+import gvs.business.styles.GVSStyleTable;
+
+/**
+ * Graph for large numbers of vertizes and edges, which are kept in primitive
+ * arrays instead of objects. A vertex is identified by the index returned by
+ * addVertex(), the edges refer to the indexes of their vertizes. The edges
+ * are stored as adjacency arrays (compressed sparse rows), ordered by their
+ * start vertex. Styles are registered once with addStyle() and referenced by
+ * their ordinal, of which at most 256 are possible.
+ * <p>
+ * After compaction, an edge takes nine bytes: the index of its end vertex,
+ * its number and the ordinal of its style. Edges have no labels and all
+ * edges of a graph are either directed or undirected. Vertizes and edges can
+ * only be added. The document is written by the same builder as the one of
+ * a GVSGraph with default vertizes. The ids are stable over all displays:
+ * a vertex has the odd id 2 * index + 1, an edge the even id 2 * number + 2,
+ * where the number counts the edges in the order they were added.
+ */
+public class GVSCompactGraph implements AutoCloseable {
+
+  // Connection
+  private XMLConnection xmlConnection = null;
+  private final ConnectionCleaner.Cleanable cleanable;
+
+  // Datas
+  private long gvsGraphId = 0;
+  private String gvsGraphName = "";
+  private final boolean directed;
+
+  // Elements of the document
+  private final GVSGraphBuilder builder = new GVSGraphBuilder();
+
+  // Styles
+  private static final int MAX_STYLES = 256;
+  private final List<GVSStyle> styles = new ArrayList<>();
+  private final GVSStyleTable styleTable = new GVSStyleTable();
+
+  // Vertizes
+  private int vertexCount = 0;
+  private String[] vertexLabels = new String[0];
+  private byte[] vertexStyles = new byte[0];
+
+  // Edges as adjacency arrays. The edges of vertex v are at the indexes
+  // offsets[v] to offsets[v + 1] - 1
+  private int[] offsets = new int[1];
+  private int[] targets = new int[0];
+  private int[] edgeNumbers = new int[0];
+  private byte[] edgeStyles = new byte[0];
+
+  // Edges added since the last compaction, their numbers follow the ones of
+  // the adjacency arrays
+  private int addedCount = 0;
+  private int[] addedFrom = new int[0];
+  private int[] addedTo = new int[0];
+  private byte[] addedStyles = new byte[0];
+
+  private static final Logger logger = LoggerFactory
+      .getLogger(GVSCompactGraph.class);
+
+  /**
+   * Creates the graph. The default style has the ordinal 0.
+   *
+   * @param pGVSGraphName
+   *          name of the graph
+   * @param pDirected
+   *          true, if the edges are directed
+   */
+  public GVSCompactGraph(String pGVSGraphName, boolean pDirected) {
+    this.gvsGraphId = System.currentTimeMillis();
+    this.gvsGraphName = pGVSGraphName;
+    if (this.gvsGraphName == null) {
+      this.gvsGraphName = "";
+      logger.debug("GraphName null. Set it to empty");
+    }
+    this.directed = pDirected;
+    styles.add(GVSStyle.DEFAULT);
+
+    xmlConnection = XMLConnectionFactory.getInstance().createConnection();
+    // The id distinguishes the graph on the shared connection
+    this.gvsGraphId = xmlConnection.attach(gvsGraphId);
+    // The action must not reference the graph itself
+    XMLConnection connection = xmlConnection;
+    long id = gvsGraphId;
+    this.cleanable = ConnectionCleaner.getInstance().register(this,
+        () -> connection.detach(id));
+  }
+
+  /**
+   * Registers a style
+   *
+   * @param pStyle
+   *          the style. Null stands for the default style
+   * @return ordinal of the style
+   * @throws IllegalStateException
+   *           if 256 styles are registered
+   */
+  public int addStyle(GVSStyle pStyle) {
+    GVSStyle style = pStyle;
+    if (style == null) {
+      style = GVSStyle.DEFAULT;
+    }
+    int ordinal = styles.indexOf(style);
+    if (ordinal >= 0) {
+      return ordinal;
+    }
+    if (styles.size() == MAX_STYLES) {
+      throw new IllegalStateException(
+          "At most " + MAX_STYLES + " styles are supported");
+    }
+    styles.add(style);
+    return styles.size() - 1;
+  }
+
+  /**
+   * Reserves the memory for the vertizes and edges to be added
+   *
+   * @param pVertizes
+   *          expected number of vertizes
+   * @param pEdges
+   *          expected number of edges added between two compactions
+   */
+  public void ensureCapacity(int pVertizes, int pEdges) {
+    if (pVertizes > vertexLabels.length) {
+      vertexLabels = Arrays.copyOf(vertexLabels, pVertizes);
+      vertexStyles = Arrays.copyOf(vertexStyles, pVertizes);
+    }
+    if (pEdges > addedFrom.length) {
+      addedFrom = Arrays.copyOf(addedFrom, pEdges);
+      addedTo = Arrays.copyOf(addedTo, pEdges);
+      addedStyles = Arrays.copyOf(addedStyles, pEdges);
+    }
+  }
+
+  /**
+   * Adds a vertex
+   *
+   * @param pLabel
+   *          label of the vertex, may be null
+   * @param pStyle
+   *          ordinal of the style
+   * @return index of the vertex
+   */
+  public int addVertex(String pLabel, int pStyle) {
+    checkStyle(pStyle);
+    if (vertexCount == vertexLabels.length) {
+      int capacity = grow(vertexCount);
+      vertexLabels = Arrays.copyOf(vertexLabels, capacity);
+      vertexStyles = Arrays.copyOf(vertexStyles, capacity);
+    }
+    vertexLabels[vertexCount] = pLabel;
+    vertexStyles[vertexCount] = (byte) pStyle;
+    return vertexCount++;
+  }
+
+  /**
+   * Adds an edge. It is sorted into the adjacency arrays with the next
+   * compaction.
+   *
+   * @param pFrom
+   *          index of the start vertex
+   * @param pTo
+   *          index of the end vertex
+   * @param pStyle
+   *          ordinal of the style
+   */
+  public void addEdge(int pFrom, int pTo, int pStyle) {
+    checkVertex(pFrom);
+    checkVertex(pTo);
+    checkStyle(pStyle);
+    if (addedCount == addedFrom.length) {
+      int capacity = grow(addedCount);
+      addedFrom = Arrays.copyOf(addedFrom, capacity);
+      addedTo = Arrays.copyOf(addedTo, capacity);
+      addedStyles = Arrays.copyOf(addedStyles, capacity);
+    }
+    addedFrom[addedCount] = pFrom;
+    addedTo[addedCount] = pTo;
+    addedStyles[addedCount] = (byte) pStyle;
+    addedCount++;
+  }
+
+  public int getVertexCount() {
+    return vertexCount;
+  }
+
+  public int getEdgeCount() {
+    return targets.length + addedCount;
+  }
+
+  /**
+   * @param pVertex
+   *          index of a vertex
+   * @return number of edges starting at the vertex
+   */
+  public int getOutDegree(int pVertex) {
+    checkVertex(pVertex);
+    compact();
+    return offsets[pVertex + 1] - offsets[pVertex];
+  }
+
+  /**
+   * @param pVertex
+   *          index of a vertex
+   * @param pIndex
+   *          index of the edge among the edges starting at the vertex
+   * @return index of the end vertex
+   */
+  public int getNeighbor(int pVertex, int pIndex) {
+    if (pIndex < 0 || pIndex >= getOutDegree(pVertex)) {
+      throw new IllegalArgumentException("No edge " + pIndex);
+    }
+    return targets[offsets[pVertex] + pIndex];
+  }
+
+  /**
+   * @param pVertex
+   *          index of a vertex
+   * @param pIndex
+   *          index of the edge among the edges starting at the vertex
+   * @return id of the edge in the document
+   */
+  public long getEdgeId(int pVertex, int pIndex) {
+    getNeighbor(pVertex, pIndex);
+    return edgeId(offsets[pVertex] + pIndex);
+  }
+
+  /**
+   * Sorts the added edges into the adjacency arrays. The arrays are rebuilt
+   * with a counting sort, the edges of a vertex keep the order in which they
+   * were added. The edges keep their numbers, so their ids do not change. It
+   * is done with each display.
+   */
+  public void compact() {
+    int sortedVertizes = offsets.length - 1;
+    if (addedCount == 0 && sortedVertizes == vertexCount) {
+      return;
+    }
+    logger.debug("Compact {} added edges", addedCount);
+    int[] newOffsets = new int[vertexCount + 1];
+    for (int vertex = 0; vertex < sortedVertizes; vertex++) {
+      newOffsets[vertex + 1] = offsets[vertex + 1] - offsets[vertex];
+    }
+    for (int edge = 0; edge < addedCount; edge++) {
+      newOffsets[addedFrom[edge] + 1]++;
+    }
+    for (int vertex = 0; vertex < vertexCount; vertex++) {
+      newOffsets[vertex + 1] += newOffsets[vertex];
+    }
+
+    int[] newTargets = new int[newOffsets[vertexCount]];
+    int[] newNumbers = new int[newTargets.length];
+    byte[] newStyles = new byte[newTargets.length];
+    int[] next = Arrays.copyOf(newOffsets, vertexCount);
+    for (int vertex = 0; vertex < sortedVertizes; vertex++) {
+      int degree = offsets[vertex + 1] - offsets[vertex];
+      System.arraycopy(targets, offsets[vertex], newTargets, next[vertex],
+          degree);
+      System.arraycopy(edgeNumbers, offsets[vertex], newNumbers,
+          next[vertex], degree);
+      System.arraycopy(edgeStyles, offsets[vertex], newStyles, next[vertex],
+          degree);
+      next[vertex] += degree;
+    }
+    for (int edge = 0; edge < addedCount; edge++) {
+      int index = next[addedFrom[edge]]++;
+      newTargets[index] = addedTo[edge];
+      newNumbers[index] = targets.length + edge;
+      newStyles[index] = addedStyles[edge];
+    }
+
+    offsets = newOffsets;
+    targets = newTargets;
+    edgeNumbers = newNumbers;
+    edgeStyles = newStyles;
+    // The arrays are kept for the edges added until the next compaction
+    addedCount = 0;
+  }
+
+  /**
+   * Compacts the edges, builds the Xml and sends it to the GVSServer. The
+   * document is encoded directly from the arrays.
+   */
+  public void display() {
+    logger.info("Start sending XML.....");
+    compact();
+    xmlConnection.sendDocument(this::writeDocument);
+    logger.info("Finish sending XML");
+  }
+
+  /**
+   * Disconnect from the Server. It have to be called for proper datatransfer.
+   */
+  public void disconnect() {
+    cleanable.clean();
+  }
+
+  /**
+   * Disconnects from the server like disconnect(), so the graph can be used
+   * with try-with-resources. If a graph is not closed, its connection is
+   * released after it was garbage collected.
+   */
+  public void close() {
+    disconnect();
+  }
+
+  // ***********************************XML
+  // Builders*************************************
+
+  private void writeDocument(DocumentEncoder pWriter) throws IOException {
+    logger.debug("Build GraphElements");
+    builder.startGraph(pWriter, this.gvsGraphId, this.gvsGraphName, false);
+
+    // Index of each style in the style table, -1 without style table
+    int[] styleIndexes = new int[styles.size()];
+    Arrays.fill(styleIndexes, -1);
+    if (xmlConnection.hasStyleTable()) {
+      styleTable.clear();
+      for (int ordinal = 0; ordinal < styles.size(); ordinal++) {
+        styleIndexes[ordinal] = styleTable.intern(styles.get(ordinal));
+      }
+      styleTable.write(pWriter);
+    }
+
+    builder.startVertizes(pWriter);
+    logger.debug("Build Vertizes-Elements");
+    for (int vertex = 0; vertex < vertexCount; vertex++) {
+      int style = vertexStyles[vertex] & 0xFF;
+      builder.buildDefaultVertex(pWriter, vertexId(vertex),
+          vertexLabels[vertex], styles.get(style), styleIndexes[style]);
+    }
+    builder.endElement(pWriter);
+
+    builder.startEdges(pWriter);
+    logger.debug("Build Edge-Elements");
+    for (int vertex = 0; vertex < vertexCount; vertex++) {
+      for (int edge = offsets[vertex]; edge < offsets[vertex + 1]; edge++) {
+        int style = edgeStyles[edge] & 0xFF;
+        builder.buildEdge(pWriter, edgeId(edge), directed, 0, null,
+            styles.get(style), styleIndexes[style], vertexId(vertex),
+            vertexId(targets[edge]));
+      }
+    }
+    builder.endElement(pWriter);
+
+    builder.endElement(pWriter);
+  }
+
+  private long vertexId(int pVertex) {
+    return 2L * pVertex + 1;
+  }
+
+  private long edgeId(int pEdge) {
+    return 2L * edgeNumbers[pEdge] + 2;
+  }
+
+  private void checkVertex(int pVertex) {
+    if (pVertex < 0 || pVertex >= vertexCount) {
+      throw new IllegalArgumentException("Unknown vertex " + pVertex);
+    }
+  }
+
+  private void checkStyle(int pStyle) {
+    if (pStyle < 0 || pStyle >= styles.size()) {
+      throw new IllegalArgumentException("Unknown style " + pStyle);
+    }
+  }
+
+  private int grow(int pSize) {
+    return Math.max(16, pSize + (pSize >> 1));
+  }
+}
@@ -1,75 +1,113 @@
-
 package gvs.business.graph;
 
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.HashSet;
+import java.util.IdentityHashMap;
 import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
 import java.util.Set;
-import java.util.Vector;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
 
-import org.dom4j.Document;
-import org.dom4j.DocumentException;
-import org.dom4j.DocumentHelper;
-import org.dom4j.Element;
-import org.dom4j.io.SAXReader;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import gvs.access.ConnectionCleaner;
+import gvs.access.DocumentEncoder;
+import gvs.access.FrameRateLimiter;
+import gvs.access.OverflowPolicy;
 import gvs.access.XMLConnection;
+import gvs.access.XMLConnectionFactory;
+import gvs.access.XMLDocumentSource;
+import gvs.business.GVSComponentType;
+import gvs.business.GVSFragmentCache;
+import gvs.business.GVSIdRegistry;
+import gvs.business.GVSLabelCache;
 import gvs.business.styles.GVSStyle;
+import gvs.business.styles.GVSStyleTable;
 
 /**
  * This class represents the graph. Null values are translated on standard or
  * empty strings. The class works over references. It does not play a role, if
- * values are doubly added or removed. The connection information have to be set
- * over Properties. -DGVSPortFile or -DGVSHost and -DGVSPort are supported.
+ * values are doubly added or removed. The vertizes of an edge are read when the
+ * edge is added and must stay the same, until the edge is removed. The
+ * connection information have to be set over Properties.
+ * -DGVSPortFile or -DGVSHost and -DGVSPort are supported.
  * 
  * @author mkoller
  */
-public class GVSGraph {
+public class GVSGraph implements AutoCloseable {
 
   // Connection
-  private String host = null;
-  private int port = 0;
-  private Document document = null;
   private XMLConnection xmlConnection = null;
+  private final ConnectionCleaner.Cleanable cleanable;
 
   // Datas
   private long gvsGraphId = 0;
   private String gvsGraphName = "";
 
-  // Config
-  private final String GVSPORTFILE = "GVSPortFile";
-  private final String GVSHOST = "GVSHost";
-  private final String GVSPORT = "GVSPort";
-
-  // Generally
-  private final String ROOT = "GVS";
-  private final String ATTRIBUTEID = "Id";
-  private final String LABEL = "Label";
-  private final String FILLCOLOR = "Fillcolor";
-  private final String ICON = "Icon";
-  private final String LINECOLOR = "Linecolor";
-  private final String LINESTYLE = "Linestyle";
-  private final String LINETHICKNESS = "Linethickness";
-
-  // Graph
-  private final String GRAPH = "Graph";
-  private final String VERTIZES = "Vertizes";
-  private final String RELATIVVERTEX = "RelativVertex";
-  private final String DEFAULTVERTEX = "DefaultVertex";
-  private final String XPOS = "XPos";
-  private final String YPOS = "YPos";
-  private final String EDGES = "Edges";
-  private final String EDGE = "Edge";
-  private final String ISDIRECTED = "IsDirected";
-  private final String FROMVERTEX = "FromVertex";
-  private final String TOVERTEX = "ToVertex";
-  private final String ARROWPOS = "DrawArrowOnPosition";
-
-  // Values to send
-  private Set<GVSDefaultVertex> gvsGraphVertizes = null;
-  private Set<GVSGraphEdge> gvsGraphEdges = null;
+  // Elements of the document
+  private final GVSGraphBuilder builder = new GVSGraphBuilder();
+
+  // Values to send. In concurrent mode, they are shared with the running
+  // display and copied by the next change
+  private GVSGraphElements elements = new GVSGraphElements();
+  private boolean shared = false;
+  private boolean concurrent = false;
+  private final Object elementLock = new Object();
+
+  // Elements of the running display
+  private GVSGraphElements displayed = null;
+  private final Object displayLock = new Object();
+
+  private int relativeVertexCount = 0;
+  private int defaultVertexCount = 0;
+  // Updated by the displaying thread, read by any
+  private volatile long droppedEdgeCount = 0;
+
+  // State of the last display, if only changes are sent
+  private GVSGraphDelta delta = null;
+  // Vertizes and edges added, removed or marked as dirty since the last
+  // display in delta mode. Recorded with the element lock and taken with
+  // the elements of a display
+  private Set<Object> changes = null;
+  private boolean allChanged = false;
+  // Changes of the running display, null to compare all elements
+  private Set<Object> displayedChanges = null;
+  private final FrameRateLimiter frameRateLimiter = new FrameRateLimiter(
+      this::sendSkipped);
+
+  // Styles of the current document, if the server accepts a style table
+  private final GVSStyleTable styleTable = new GVSStyleTable();
+  private boolean useStyleTable = false;
+
+  // Styles of the displayed elements, evaluated once per display on the
+  // calling thread, if they are needed before the elements are written
+  private Map<Object, GVSStyle> resolvedStyles = null;
+
+  // Ids of the vertizes and edges, stable over all displays
+  private final GVSIdRegistry idRegistry = new GVSIdRegistry();
+
+  // Labels and styles of the last displays, if they are cached
+  private GVSLabelCache labelCache = null;
+  private GVSFragmentCache fragmentCache = null;
+  private boolean parallelEvaluation = false;
+
+  // Serialization in chunks on the common ForkJoinPool
+  private static final int MIN_CHUNK_SIZE = 1024;
+  private static final int CHUNKS_PER_THREAD = 4;
+  private boolean parallel = false;
+
+  // Edges by their vertizes, used to remove the edges of a vertex
+  private Map<GVSDefaultVertex, List<GVSGraphEdge>> incidentEdges = null;
 
   private static final Logger logger = LoggerFactory.getLogger(GVSGraph.class);
 
@@ -81,6 +119,14 @@ public class GVSGraph {
    * @param pGVSGraphTyp
    */
   public GVSGraph(String pGVSGraphName) {
+    this(pGVSGraphName,
+        XMLConnectionFactory.getInstance().createConnection());
+  }
+
+  /**
+   * Creates the graph on the given connection, e.g. to a test server
+   */
+  GVSGraph(String pGVSGraphName, XMLConnection pConnection) {
     this.gvsGraphId = System.currentTimeMillis();
     this.gvsGraphName = pGVSGraphName;
     if (this.gvsGraphName == null) {
@@ -88,61 +134,16 @@ public class GVSGraph {
       logger.debug("GraphName null. Set it to empty");
     }
 
-    this.gvsGraphEdges = new HashSet<GVSGraphEdge>();
-    this.gvsGraphVertizes = new HashSet<GVSDefaultVertex>();
-
-    String propPortfile = System.getProperty(GVSPORTFILE);
-    String propHost = System.getProperty(GVSHOST);
-    String propPort = System.getProperty(GVSPORT);
+    this.incidentEdges = new IdentityHashMap<>();
 
-    // Set Portfilepath from VM
-    if (propPortfile != null) {
-      SAXReader reader = new SAXReader();
-      logger.info("Load Communication from Portfile");
-      try {
-        // Read Portfile
-        Document document = reader.read(propPortfile);
-        Element docRoot = document.getRootElement();
-        Element eHost = docRoot.element("Host");
-        Element ePort = docRoot.element("Port");
-        if (eHost != null && ePort != null) {
-          host = eHost.getText();
-          port = Integer.parseInt(ePort.getText());
-        } else {
-          logger.error("Error while Portfile loading. System exit");
-          System.exit(0);
-        }
-
-      } catch (DocumentException e) {
-        logger.error("Error while Portfile loading. System exit", e);
-        System.exit(0);
-      }
-    }
-
-    // Set Host and Port from VM
-    else if (propHost != null && propPort != null) {
-      logger.info("Load Communication from Host and Port");
-      try {
-        this.host = propHost;
-        this.port = Integer.parseInt(propPort);
-        logger.info("Host: " + host + " Port: " + port);
-      } catch (Exception ex) {
-        logger.error("Error port or host. System exit", ex);
-        System.exit(0);
-      }
-
-    }
-
-    // Set Defaultvalues
-    else {
-      logger.info("Set default for host and port");
-      this.host = "127.0.0.1";
-      this.port = 3000;
-      logger.info("host: " + host + " port: " + port);
-    }
-
-    xmlConnection = new XMLConnection(host, port);
-    xmlConnection.connectToServer();
+    xmlConnection = pConnection;
+    // The id distinguishes the graph on the shared connection
+    this.gvsGraphId = xmlConnection.attach(gvsGraphId);
+    // The action must not reference the graph itself
+    XMLConnection connection = xmlConnection;
+    long id = gvsGraphId;
+    this.cleanable = ConnectionCleaner.getInstance().register(this,
+        () -> connection.detach(id));
   }
 
   /**
@@ -151,8 +152,7 @@ public class GVSGraph {
    * @param pGVSVertex
    */
   public void add(GVSDefaultVertex pGVSVertex) {
-    checkForMixedGraph(pGVSVertex);
-    this.gvsGraphVertizes.add(pGVSVertex);
+    addVertex(pGVSVertex);
     logger.debug("DefaultVertex added");
   }
 
@@ -162,28 +162,32 @@ public class GVSGraph {
    * @param pGVSVertex
    */
   public void add(GVSRelativeVertex pGVSVertex) {
-    checkForMixedGraph(pGVSVertex);
-    this.gvsGraphVertizes.add(pGVSVertex);
+    addVertex(pGVSVertex);
     logger.debug("RelativVertex added");
   }
 
   /**
-   * Add a DirectedEdge
+   * Add a DirectedEdge. Its vertizes are read once and must not change while
+   * the edge is part of the graph, otherwise the edge is not removed with
+   * its vertizes.
    * 
    * @param pGVSEdge
    */
   public void add(GVSUndirectedEdge pGVSEdge) {
-    this.gvsGraphEdges.add(pGVSEdge);
+    addEdge(pGVSEdge, pGVSEdge.getGVSVertizes());
     logger.debug("UndiectedEdge added");
   }
 
   /**
-   * Add a UndirectedEdge
+   * Add a UndirectedEdge. Its vertizes are read once and must not change
+   * while the edge is part of the graph, otherwise the edge is not removed
+   * with its vertizes.
    * 
    * @param pGVSEdge
    */
   public void add(GVSDirectedEdge pGVSEdge) {
-    this.gvsGraphEdges.add(pGVSEdge);
+    addEdge(pGVSEdge, new GVSDefaultVertex[] { pGVSEdge.getGVSStartVertex(),
+        pGVSEdge.getGVSEndVertex() });
     logger.debug("DirectedEdge added");
   }
 
@@ -194,19 +198,26 @@ public class GVSGraph {
    */
   public void add(Collection<?> pGVSComponent) {
     logger.debug("Beginn to add a Collection");
-    Iterator<?> componentIterator = pGVSComponent.iterator();
-    while (componentIterator.hasNext()) {
-      Object tmp = componentIterator.next();
-      Class<?>[] interfaces = tmp.getClass().getInterfaces();
-      for (int count = 0; count < interfaces.length; count++) {
-        if (interfaces[count] == GVSDirectedEdge.class) {
+    synchronized (elementLock) {
+      Iterator<?> componentIterator = pGVSComponent.iterator();
+      while (componentIterator.hasNext()) {
+        Object tmp = componentIterator.next();
+        switch (GVSComponentType.of(tmp)) {
+        case DIRECTED_EDGE:
           this.add((GVSDirectedEdge) tmp);
-        } else if (interfaces[count] == GVSUndirectedEdge.class) {
+          break;
+        case UNDIRECTED_EDGE:
           this.add((GVSUndirectedEdge) tmp);
-        } else if (interfaces[count] == GVSDefaultVertex.class) {
-          this.add((GVSDefaultVertex) tmp);
-        } else if (interfaces[count] == GVSRelativeVertex.class) {
+          break;
+        case RELATIVE_VERTEX:
           this.add((GVSRelativeVertex) tmp);
+          break;
+        case DEFAULT_VERTEX:
+          this.add((GVSDefaultVertex) tmp);
+          break;
+        default:
+          logger.warn("Unknown component ignored");
+          break;
         }
       }
     }
@@ -219,8 +230,10 @@ public class GVSGraph {
    * @param pGVSEdge
    */
   public void add(GVSDirectedEdge[] pGVSEdge) {
-    for (int count = 0; count < pGVSEdge.length; count++) {
-      this.gvsGraphEdges.add(pGVSEdge[count]);
+    synchronized (elementLock) {
+      for (int count = 0; count < pGVSEdge.length; count++) {
+        this.add(pGVSEdge[count]);
+      }
     }
     logger.debug("DirectedEdge[] added");
   }
@@ -231,8 +244,10 @@ public class GVSGraph {
    * @param pGVSEdge
    */
   public void add(GVSUndirectedEdge[] pGVSEdge) {
-    for (int count = 0; count < pGVSEdge.length; count++) {
-      this.gvsGraphEdges.add(pGVSEdge[count]);
+    synchronized (elementLock) {
+      for (int count = 0; count < pGVSEdge.length; count++) {
+        this.add(pGVSEdge[count]);
+      }
     }
     logger.debug("UndirectedEdge[] added");
   }
@@ -243,10 +258,10 @@ public class GVSGraph {
    * @param pGVSVertex
    */
   public void add(GVSDefaultVertex[] pGVSVertex) {
-    for (int count = 0; count < pGVSVertex.length; count++) {
-      GVSDefaultVertex vertex = pGVSVertex[count];
-      checkForMixedGraph(vertex);
-      this.gvsGraphVertizes.add(vertex);
+    synchronized (elementLock) {
+      for (int count = 0; count < pGVSVertex.length; count++) {
+        addVertex(pGVSVertex[count]);
+      }
     }
     logger.debug("DefaultVertex[] added");
   }
@@ -257,10 +272,10 @@ public class GVSGraph {
    * @param pGVSVertex
    */
   public void add(GVSRelativeVertex[] pGVSVertex) {
-    for (int count = 0; count < pGVSVertex.length; count++) {
-      GVSRelativeVertex vertex = pGVSVertex[count];
-      checkForMixedGraph(vertex);
-      this.gvsGraphVertizes.add(vertex);
+    synchronized (elementLock) {
+      for (int count = 0; count < pGVSVertex.length; count++) {
+        addVertex(pGVSVertex[count]);
+      }
     }
     logger.debug("RealtivVertex[] added");
   }
@@ -272,40 +287,7 @@ public class GVSGraph {
    */
   public void remove(GVSDefaultVertex pGVSVertex) {
     logger.debug("Begin to remove DefaultVertex");
-    Vector<GVSGraphEdge> toRemove = new Vector<>();
-    Iterator<GVSGraphEdge> edgeIt = gvsGraphEdges.iterator();
-    while (edgeIt.hasNext()) {
-      Object tmp = edgeIt.next();
-      Class<?>[] interfaces = tmp.getClass().getInterfaces();
-      for (int count = 0; count < interfaces.length; count++) {
-        if (interfaces[count] == GVSDirectedEdge.class) {
-          GVSDirectedEdge de = (GVSDirectedEdge) tmp;
-          if (de.getGVSStartVertex() == pGVSVertex) {
-            toRemove.add(de);
-            logger.debug("DirectedEdge to remove found");
-          }
-          if (de.getGVSEndVertex() == pGVSVertex) {
-            toRemove.add(de);
-            logger.debug("DirectedEdge to remove found");
-          }
-        } else if (interfaces[count] == GVSUndirectedEdge.class) {
-          GVSUndirectedEdge ue = (GVSUndirectedEdge) tmp;
-          GVSDefaultVertex[] vertizes = ue.getGVSVertizes();
-          for (int counter = 0; counter < vertizes.length; counter++) {
-            if (vertizes[counter] == pGVSVertex) {
-              toRemove.add(ue);
-              logger.debug("UndiectedEdge to remove found");
-            }
-          }
-        }
-      }
-    }
-    Iterator<GVSGraphEdge> removeIt = toRemove.iterator();
-    while (removeIt.hasNext()) {
-      gvsGraphEdges.remove(removeIt.next());
-      logger.debug("Remove founded Edges");
-    }
-    this.gvsGraphVertizes.remove(pGVSVertex);
+    removeVertizes(Collections.singletonList(pGVSVertex));
     logger.debug("Finish remove DefaultVertex");
   }
 
@@ -316,40 +298,7 @@ public class GVSGraph {
    */
   public void remove(GVSRelativeVertex pGVSVertex) {
     logger.debug("Begin to remove relativtVertex");
-    Vector<GVSGraphEdge> toRemove = new Vector<>();
-    Iterator<GVSGraphEdge> edgeIt = gvsGraphEdges.iterator();
-    while (edgeIt.hasNext()) {
-      Object tmp = edgeIt.next();
-      Class<?>[] interfaces = tmp.getClass().getInterfaces();
-      for (int count = 0; count < interfaces.length; count++) {
-        if (interfaces[count] == GVSDirectedEdge.class) {
-          GVSDirectedEdge de = (GVSDirectedEdge) tmp;
-          if (de.getGVSStartVertex() == pGVSVertex) {
-            toRemove.add(de);
-            logger.debug("DirectedEdge to remove found");
-          }
-          if (de.getGVSEndVertex() == pGVSVertex) {
-            toRemove.add(de);
-            logger.debug("DirectedEdge to remove found");
-          }
-        } else if (interfaces[count] == GVSUndirectedEdge.class) {
-          GVSUndirectedEdge ue = (GVSUndirectedEdge) tmp;
-          GVSDefaultVertex[] vertizes = ue.getGVSVertizes();
-          for (int counter = 0; counter < vertizes.length; counter++) {
-            if (vertizes[counter] == pGVSVertex) {
-              toRemove.add(ue);
-              logger.debug("UndiectedEdge to remove found");
-            }
-          }
-        }
-      }
-    }
-    Iterator<GVSGraphEdge> removeIt = toRemove.iterator();
-    while (removeIt.hasNext()) {
-      gvsGraphEdges.remove(removeIt.next());
-      logger.debug("remove founded Edges");
-    }
-    this.gvsGraphVertizes.remove(pGVSVertex);
+    removeVertizes(Collections.singletonList(pGVSVertex));
     logger.debug("Finish remove RealtivVertex");
   }
 
@@ -359,7 +308,7 @@ public class GVSGraph {
    * @param pGVSEdge
    */
   public void remove(GVSDirectedEdge pGVSEdge) {
-    this.gvsGraphEdges.remove(pGVSEdge);
+    removeEdges(Collections.singletonList(pGVSEdge));
     logger.debug("Remove DirectedEdge");
   }
 
@@ -369,37 +318,49 @@ public class GVSGraph {
    * @param pGVSEdge
    */
   public void remove(GVSUndirectedEdge pGVSEdge) {
-    this.gvsGraphEdges.remove(pGVSEdge);
+    removeEdges(Collections.singletonList(pGVSEdge));
     logger.debug("Remove UndirectedEdge");
   }
 
   /**
-   * Remove a Collection of GVSComponents.
+   * Remove a Collection of GVSComponents. Vertizes and edges are removed in
+   * one pass.
    * 
    * @param pGVSComponent
    */
   public void remove(Collection<Object> pGVSComponent) {
     logger.debug("Beginn to remove a Collection");
+    List<GVSDefaultVertex> vertizes = new ArrayList<>();
+    List<GVSGraphEdge> edges = new ArrayList<>();
     Iterator<Object> componentIterator = pGVSComponent.iterator();
     while (componentIterator.hasNext()) {
       Object tmp = componentIterator.next();
-      Class<?>[] interfaces = tmp.getClass().getInterfaces();
-      for (int count = 0; count < interfaces.length; count++) {
-        if (interfaces[count] == GVSDirectedEdge.class) {
-          logger.debug("DirectedEdge found");
-          this.remove((GVSDirectedEdge) tmp);
-        } else if (interfaces[count] == GVSUndirectedEdge.class) {
-          logger.debug("UndirectedEdge found");
-          this.remove((GVSUndirectedEdge) tmp);
-        } else if (interfaces[count] == GVSDefaultVertex.class) {
-          logger.debug("DefaultVertex found");
-          this.remove((GVSDefaultVertex) tmp);
-        } else if (interfaces[count] == GVSRelativeVertex.class) {
-          logger.debug("RelativVertex found");
-          this.remove((GVSRelativeVertex) tmp);
-        }
+      switch (GVSComponentType.of(tmp)) {
+      case DIRECTED_EDGE:
+        logger.debug("DirectedEdge found");
+        edges.add((GVSDirectedEdge) tmp);
+        break;
+      case UNDIRECTED_EDGE:
+        logger.debug("UndirectedEdge found");
+        edges.add((GVSUndirectedEdge) tmp);
+        break;
+      case RELATIVE_VERTEX:
+        logger.debug("RelativVertex found");
+        vertizes.add((GVSRelativeVertex) tmp);
+        break;
+      case DEFAULT_VERTEX:
+        logger.debug("DefaultVertex found");
+        vertizes.add((GVSDefaultVertex) tmp);
+        break;
+      default:
+        logger.warn("Unknown component ignored");
+        break;
       }
     }
+    synchronized (elementLock) {
+      removeEdges(edges);
+      removeVertizes(vertizes);
+    }
     logger.debug("Finish remove Collection");
   }
 
@@ -409,9 +370,7 @@ public class GVSGraph {
    * @param pGVSEdge
    */
   public void remove(GVSDirectedEdge[] pGVSEdge) {
-    for (int count = 0; count < pGVSEdge.length; count++) {
-      this.gvsGraphEdges.remove(pGVSEdge[count]);
-    }
+    removeEdges(Arrays.asList(pGVSEdge));
     logger.debug("DirectedEdge[] removed");
   }
 
@@ -421,279 +380,1008 @@ public class GVSGraph {
    * @param pGVSEdge
    */
   public void remove(GVSUndirectedEdge[] pGVSEdge) {
-    for (int count = 0; count < pGVSEdge.length; count++) {
-      this.gvsGraphEdges.remove(pGVSEdge[count]);
-    }
+    removeEdges(Arrays.asList(pGVSEdge));
     logger.debug("UnirectedEdge[] removed");
   }
 
   /**
-   * Remove a Array of DefaultVertizes
+   * Remove a Array of DefaultVertizes. Connected edges will be removed to
    * 
    * @param pGVSVertex
    */
   public void remove(GVSDefaultVertex[] pGVSVertex) {
-    for (int count = 0; count < pGVSVertex.length; count++) {
-      this.remove(pGVSVertex[count]);
-    }
+    removeVertizes(Arrays.asList(pGVSVertex));
     logger.debug("DefaultVertex[] removed");
   }
 
   /**
-   * Remove a Array of RealtiveVertizes
+   * Remove a Array of RealtiveVertizes. Connected edges will be removed to
    * 
    * @param pGVSVertex
    */
   public void remove(GVSRelativeVertex[] pGVSVertex) {
-    for (int count = 0; count < pGVSVertex.length; count++) {
-      this.remove(pGVSVertex[count]);
-    }
+    removeVertizes(Arrays.asList(pGVSVertex));
     logger.debug("RelativVertex[] removed");
   }
 
   /**
-   * Build the Xml and send it to the GVSServer
+   * Build the Xml and send it to the GVSServer. The document is encoded
+   * while the vertizes and edges are iterated and sent, when it is complete.
    *
    */
   public void display() {
+    if (!frameRateLimiter.tryAcquire()) {
+      logger.debug("Display skipped, frame rate limit reached");
+      return;
+    }
+    send();
+  }
 
-    logger.info("Start bilding XML.....");
-    document = DocumentHelper.createDocument();
-
-    logger.debug("Build GraphElements");
-    Element docRoot = document.addElement(ROOT);
+  private void send() {
+    logger.info("Start sending XML.....");
+    send(this::writeDocument);
+    logger.info("Finish sending XML");
+  }
 
-    Element graph = docRoot.addElement(GRAPH);
-    graph.addAttribute(ATTRIBUTEID, String.valueOf(this.gvsGraphId));
-    Element graphLabel = graph.addElement(LABEL);
-    graphLabel.addText(this.gvsGraphName);
+  /**
+   * Sends the latest display skipped by the frame rate limit at the end of
+   * the interval. It runs on the thread "GVS-FrameRate", so the elements are
+   * shared with it like in the concurrent mode.
+   */
+  private void sendSkipped() {
+    logger.info("Start sending skipped XML.....");
+    send(pWriter -> writeDocument(pWriter, true));
+    logger.info("Finish sending skipped XML");
+  }
 
-    Element vertizes = docRoot.addElement(VERTIZES);
-    logger.debug("Build Vertizes-Elements");
-    Iterator<GVSDefaultVertex> vertexIterator = gvsGraphVertizes.iterator();
-    while (vertexIterator.hasNext()) {
-      Object tmp = vertexIterator.next();
-      Class<?>[] interfaces = tmp.getClass().getInterfaces();
-      for (int count = 0; count < interfaces.length; count++) {
-        if (interfaces[count] == GVSDefaultVertex.class) {
-          GVSDefaultVertex vertex = (GVSDefaultVertex) tmp;
-          if (vertex != null) {
-            logger.debug("Build DefaultVertex");
-            buildDefaultVertex(vertizes, vertex);
-          } else {
-            logger.warn("DefaultVertex is null");
+  private void send(XMLDocumentSource pSource) {
+    boolean sent = false;
+    try {
+      sent = xmlConnection.sendDocument(pSource);
+    } finally {
+      if (!sent) {
+        // Also if a label or style failed, the next display is complete
+        synchronized (displayLock) {
+          if (delta != null) {
+            delta.reset();
           }
-          break;
-        } else if (interfaces[count] == GVSRelativeVertex.class) {
-          GVSRelativeVertex vertex = (GVSRelativeVertex) tmp;
-          if (vertex != null) {
-            logger.debug("Build RealtivVertex");
-            buildRelativVertex(vertizes, vertex);
-          } else {
-            logger.warn("RealtivVertex is null");
-          }
-          break;
         }
       }
+    }
+  }
 
+  /**
+   * Build the Xml on the calling thread and send it to the GVSServer in the
+   * background. The caller does not wait for the server.
+   *
+   * @return completed with true, if the graph was sent. False, if the
+   *         display was skipped because of the frame rate limit
+   */
+  public CompletableFuture<Boolean> displayAsync() {
+    if (!frameRateLimiter.tryAcquire()) {
+      logger.debug("Display skipped, frame rate limit reached");
+      return CompletableFuture.completedFuture(false);
     }
+    logger.info("Queue XML.....");
+    return xmlConnection.sendDocumentAsync(this::writeDocument);
+  }
 
-    Element edges = docRoot.addElement(EDGES);
-    logger.debug("Build Edge-Elements");
-    Iterator<GVSGraphEdge> edgeIterator = gvsGraphEdges.iterator();
-    while (edgeIterator.hasNext()) {
-      Object tmp = edgeIterator.next();
-      Class<?>[] interfaces = tmp.getClass().getInterfaces();
-      for (int count = 0; count < interfaces.length; count++) {
-        if (interfaces[count] == GVSDirectedEdge.class) {
-          GVSDirectedEdge edge = (GVSDirectedEdge) tmp;
-          if (edge != null) {
-            logger.debug("Build DirectedEdge");
-            buildDirectedEdge(edges, edge);
-          } else {
-            logger.warn("DirectedEdge null");
-          }
-          break;
-        } else if (interfaces[count] == GVSUndirectedEdge.class) {
-          GVSUndirectedEdge edge = (GVSUndirectedEdge) tmp;
-          if (edge != null) {
-            logger.debug("Build UndirectedEdge");
-            buildUndirectedEdge(edges, edge);
-          } else {
-            logger.warn("UndirectedEdge null");
-          }
-          break;
+  /**
+   * Sets the queue size and the overflow policy of displayAsync()
+   *
+   * @param pCapacity
+   *          maximal number of queued displays
+   * @param pPolicy
+   *          behaviour, if the queue is full
+   */
+  public void setAsyncQueue(int pCapacity, OverflowPolicy pPolicy) {
+    xmlConnection.setAsyncQueue(pCapacity, pPolicy);
+  }
+
+  /**
+   * Limits the number of displays sent per second. Displays inside the
+   * interval are skipped, the latest state is sent at the end of the
+   * interval by the background thread "GVS-FrameRate", unless the next
+   * display or the disconnect sends it before. The elements are shared with
+   * that display like in the concurrent mode, so they can be added and
+   * removed meanwhile. But the labels and styles are read on that thread,
+   * while the calling thread continues. markDirty() waits for the display.
+   *
+   * @param pMaxFramesPerSecond
+   *          maximal number of displays per second. 0 disables the limit
+   */
+  public void setMaxFramesPerSecond(int pMaxFramesPerSecond) {
+    frameRateLimiter.setMaxFramesPerSecond(pMaxFramesPerSecond);
+  }
+
+  /**
+   * Enables the delta mode. In delta mode, display() sends only the vertizes
+   * and edges, which were added or changed since the last display, and the
+   * ids of the removed ones. The first display and every display after a
+   * reconnect send the full graph, as well as all displays, if the server
+   * does not accept delta documents.
+   * <p>
+   * The additions and removals are recorded, when the graph is changed. A
+   * display evaluates and writes only these elements, so its time depends on
+   * the size of the changes, not of the graph. Changes of the label, style
+   * or position of an element have to be marked with markDirty(), like with
+   * the cached evaluation. After markAllDirty(), the next display compares
+   * all elements with their last state. The dropped edges are counted only
+   * among the changed ones.
+   * 
+   * @param pDeltaMode
+   *          true to send only the changes
+   */
+  public void setDeltaMode(boolean pDeltaMode) {
+    synchronized (displayLock) {
+      synchronized (elementLock) {
+        if (pDeltaMode && delta == null) {
+          delta = new GVSGraphDelta();
+          changes = Collections
+              .newSetFromMap(new IdentityHashMap<Object, Boolean>());
+        } else if (!pDeltaMode) {
+          delta = null;
+          changes = null;
         }
       }
     }
+  }
 
-    logger.info("Finish building XML");
-    xmlConnection.sendFile(document);
+  /**
+   * Enables the parallel serialization. The vertizes and edges of large
+   * graphs are split into chunks, which are encoded on the common
+   * ForkJoinPool. The document is the same as with the sequential
+   * serialization. The vertizes and edges must not be changed by other
+   * threads during display(), unless the concurrent mode is enabled.
+   *
+   * @param pParallel
+   *          true to encode the chunks in parallel
+   */
+  public void setParallelSerialization(boolean pParallel) {
+    this.parallel = pParallel;
+  }
+
+  /**
+   * Enables the concurrent mode. The vertizes and edges can be added and
+   * removed by several threads, also while another thread displays the
+   * graph. A display sends the graph as it was at its start and does not
+   * block the writers: the elements are shared with the display and copied
+   * by the first change after its start. Changes of several elements, e.g.
+   * the removal of a collection, are sent completely or not at all.
+   * Displays of the graph are sent one after the other.
+   *
+   * @param pConcurrent
+   *          true to copy the elements, which are changed while they are
+   *          displayed
+   */
+  public void setConcurrent(boolean pConcurrent) {
+    synchronized (elementLock) {
+      this.concurrent = pConcurrent;
+    }
+  }
+
+  /**
+   * Enables the cache of the labels, styles and encoded elements. A vertex or
+   * edge is evaluated and encoded once, the result is reused for the
+   * following displays. Changes of an element, e.g. of its label, style,
+   * position or vertizes, are only sent after the element is marked as
+   * dirty. A display of an unchanged graph only appends the cached elements.
+   *
+   * @param pCached
+   *          true to cache the labels, styles and encoded elements
+   */
+  public void setCachedEvaluation(boolean pCached) {
+    if (pCached && labelCache == null) {
+      labelCache = new GVSLabelCache();
+      labelCache.setParallel(parallelEvaluation);
+      fragmentCache = new GVSFragmentCache();
+    } else if (!pCached) {
+      labelCache = null;
+      fragmentCache = null;
+    }
+  }
+
+  /**
+   * Evaluates the labels and styles of new and dirty elements in parallel,
+   * if the cache is enabled. getGVSVertexLabel(), getGVSEdgeLabel() and
+   * getStyle() have to be thread-safe then.
+   *
+   * @param pParallel
+   *          true to evaluate in parallel
+   */
+  public void setParallelEvaluation(boolean pParallel) {
+    this.parallelEvaluation = pParallel;
+    if (labelCache != null) {
+      labelCache.setParallel(pParallel);
+    }
+  }
+
+  /**
+   * Marks a vertex or edge as changed. Its label and style are evaluated
+   * again with the next display. In delta mode, it is sent again.
+   *
+   * @param pElement
+   *          the changed vertex or edge
+   */
+  public void markDirty(Object pElement) {
+    synchronized (displayLock) {
+      if (labelCache != null) {
+        labelCache.markDirty(pElement);
+        fragmentCache.markDirty(idRegistry.find(pElement));
+      }
+      recordChange(pElement);
+    }
+  }
 
+  /**
+   * Marks all vertizes and edges as changed
+   */
+  public void markAllDirty() {
+    synchronized (displayLock) {
+      if (labelCache != null) {
+        labelCache.markAllDirty();
+        fragmentCache.markAllDirty();
+      }
+      synchronized (elementLock) {
+        allChanged = changes != null;
+      }
+    }
   }
 
   /**
-   * Disconnect from the Server. It have to be called for proper datatransfer
+   * Returns the number of edges, which were not sent because one of their
+   * vertizes is not part of the graph. The number is accumulated over all
+   * calls of display().
+   * 
+   * @return number of dropped edges
+   */
+  public long getDroppedEdgeCount() {
+    return droppedEdgeCount;
+  }
+
+  /**
+   * Disconnect from the Server. It have to be called for proper datatransfer.
+   * A display skipped by the frame rate limit is sent before.
    *
    */
   public void disconnect() {
-    xmlConnection.disconnectFromServer();
+    if (frameRateLimiter.flush()) {
+      send();
+    }
+    cleanable.clean();
   }
 
-  protected void finalize() throws Throwable {
-    super.finalize();
-    this.disconnect();
+  /**
+   * Disconnects from the server like disconnect(), so the graph can be used
+   * with try-with-resources. If a graph is not closed, its connection is
+   * released after it was garbage collected, without the skipped display.
+   */
+  public void close() {
+    disconnect();
   }
 
   // ***********************************XML
   // Builders*************************************
 
-  private void buildDefaultVertex(Element pParent, GVSDefaultVertex pVertex) {
-    logger.debug("Create DefaultVertex-->XML");
-    Element defaultVertex = pParent.addElement(DEFAULTVERTEX);
-    defaultVertex.addAttribute(ATTRIBUTEID, String.valueOf(pVertex.hashCode()));
+  private void writeDocument(DocumentEncoder pWriter) throws IOException {
+    writeDocument(pWriter, false);
+  }
 
-    buildStyleAndLabel(pVertex, defaultVertex);
+  /**
+   * @param pShared
+   *          true to share the elements with the display also outside of
+   *          the concurrent mode
+   */
+  private void writeDocument(DocumentEncoder pWriter, boolean pShared)
+      throws IOException {
+    synchronized (displayLock) {
+      displayed = snapshot(pShared);
+      try {
+        writeGraph(pWriter);
+      } finally {
+        release(displayed);
+        displayed = null;
+      }
+    }
   }
 
-  private void buildRelativVertex(Element pParent, GVSRelativeVertex pVertex) {
-    logger.debug("Create RealtivVertex-->XML");
-    Element relativeVertex = pParent.addElement(RELATIVVERTEX);
-    relativeVertex.addAttribute(ATTRIBUTEID,
-        String.valueOf(pVertex.hashCode()));
+  /**
+   * Returns the elements to be displayed. In concurrent mode, the next change
+   * copies them, unless the display is finished before.
+   */
+  private GVSGraphElements snapshot(boolean pShared) {
+    synchronized (elementLock) {
+      shared = concurrent || pShared;
+      displayedChanges = null;
+      if (changes != null) {
+        // The changes belong to the elements of this display
+        if (!allChanged) {
+          displayedChanges = changes;
+        }
+        changes = Collections
+            .newSetFromMap(new IdentityHashMap<Object, Boolean>());
+        allChanged = false;
+      }
+      return elements;
+    }
+  }
 
-    buildStyleAndLabel(pVertex, relativeVertex);
-    Element xPos = relativeVertex.addElement(XPOS);
-    xPos.addText(String.valueOf(pVertex.getX()));
-    Element yPos = relativeVertex.addElement(YPOS);
-    yPos.addText(String.valueOf(pVertex.getY()));
+  /**
+   * Ends the sharing of the elements with a finished display. If they were
+   * not copied during the display, the next change modifies them directly.
+   */
+  private void release(GVSGraphElements pDisplayed) {
+    synchronized (elementLock) {
+      if (elements == pDisplayed) {
+        shared = false;
+      }
+    }
   }
 
-  private void buildStyleAndLabel(GVSDefaultVertex pVertex,
-      Element relativeVertex) {
-    GVSStyle nodeStyle = pVertex.getStyle();
-    if (nodeStyle == null) {
-      nodeStyle = new GVSStyle();
+  /**
+   * Returns the elements to be changed. Elements shared with a display are
+   * copied first. Must be called with the element lock.
+   */
+  private GVSGraphElements modifiable() {
+    if (shared) {
+      elements = elements.copy();
+      shared = false;
     }
+    return elements;
+  }
 
-    Element label = relativeVertex.addElement(LABEL);
-    String vertexLabel = pVertex.getGVSVertexLabel();
-    if (vertexLabel == null) {
-      vertexLabel = "";
+  private void writeGraph(DocumentEncoder pWriter) throws IOException {
+    // Only changes are sent, if the server accepts them
+    boolean tracked = delta != null && xmlConnection.hasDelta();
+    if (delta != null && !tracked) {
+      delta.reset();
+    }
+    final boolean full = !tracked
+        || delta.begin(xmlConnection.getConnectionCount());
+    Collection<GVSDefaultVertex> vertizes = displayed.getVertizes();
+    Collection<GVSGraphEdge> edges = displayed.getEdges().keySet();
+    List<Object> removed = new ArrayList<>();
+    boolean incremental = !full && displayedChanges != null;
+    if (incremental) {
+      List<GVSDefaultVertex> changedVertizes = new ArrayList<>();
+      List<GVSGraphEdge> changedEdges = new ArrayList<>();
+      splitChanges(changedVertizes, changedEdges, removed);
+      vertizes = changedVertizes;
+      edges = changedEdges;
     }
-    label.addText(vertexLabel);
-    Element lineColor = relativeVertex.addElement(LINECOLOR);
-    lineColor.addText(nodeStyle.getLineColor().name());
-    Element lineStyle = relativeVertex.addElement(LINESTYLE);
-    lineStyle.addText(nodeStyle.getLineStyle().name());
-    Element lineThick = relativeVertex.addElement(LINETHICKNESS);
-    lineThick.addText(nodeStyle.getLineThickness().name());
-    Element fillColor = relativeVertex.addElement(FILLCOLOR);
-    fillColor.addText(nodeStyle.getFillColor().name());
-    if (nodeStyle.getIcon() != null) {
-      Element icon = relativeVertex.addElement(ICON);
-      icon.addText(nodeStyle.getIcon().name());
+
+    if (labelCache != null) {
+      labelCache.evaluate(vertizes, GVSDefaultVertex::getGVSVertexLabel,
+          GVSDefaultVertex::getStyle);
+      labelCache.evaluate(edges, GVSGraphEdge::getGVSEdgeLabel,
+          GVSGraphEdge::getStyle);
+    }
+    useStyleTable = xmlConnection.hasStyleTable();
+    resolvedStyles = null;
+    if (tracked || useStyleTable) {
+      resolvedStyles = resolveStyles(vertizes, edges);
+    }
+    if (tracked) {
+      pWriter.setIncremental(!full);
+      evaluateChanges(vertizes, edges);
+    }
+
+    logger.debug("Build GraphElements");
+    builder.startGraph(pWriter, this.gvsGraphId, this.gvsGraphName, !full);
+
+    if (tracked) {
+      writeRemoved(pWriter, full, incremental, removed);
+    }
+
+    if (useStyleTable) {
+      collectStyles(vertizes, edges, full);
+      styleTable.write(pWriter);
+    }
+
+    if (parallel) {
+      registerIds(vertizes, edges);
+    }
+    if (fragmentCache != null) {
+      fragmentCache.begin(pWriter, idRegistry.getLastId());
+    }
+
+    builder.startVertizes(pWriter);
+    logger.debug("Build Vertizes-Elements");
+    writeElements(pWriter, vertizes,
+        (writer, vertex) -> buildVertex(writer, vertex, full));
+    builder.endElement(pWriter);
+
+    builder.startEdges(pWriter);
+    logger.debug("Build Edge-Elements");
+    droppedEdgeCount += writeElements(pWriter, edges,
+        (writer, edge) -> buildEdge(writer, edge, full));
+    builder.endElement(pWriter);
+
+    builder.endElement(pWriter);
+    resolvedStyles = null;
+    if (incremental) {
+      forget(removed);
+      return;
+    }
+    idRegistry.sweep();
+    if (labelCache != null) {
+      labelCache.sweep();
+      fragmentCache.sweep();
     }
   }
 
-  private void buildDirectedEdge(Element pParent, GVSDirectedEdge pEdge) {
-    logger.debug("Create DirectedEdge-->XML");
-    GVSDefaultVertex vertex1 = pEdge.getGVSStartVertex();
-    GVSDefaultVertex vertex2 = pEdge.getGVSEndVertex();
-    boolean vertex1Exist = false;
-    boolean vertex2Exist = false;
+  /**
+   * Splits the recorded changes into the vertizes and edges to be sent and
+   * the elements, which are not part of the graph anymore
+   */
+  private void splitChanges(List<GVSDefaultVertex> pVertizes,
+      List<GVSGraphEdge> pEdges, List<Object> pRemoved) {
+    for (Object element : displayedChanges) {
+      if (element instanceof GVSDefaultVertex
+          && displayed.contains((GVSDefaultVertex) element)) {
+        pVertizes.add((GVSDefaultVertex) element);
+      } else if (element instanceof GVSGraphEdge
+          && displayed.getEdges().containsKey(element)) {
+        pEdges.add((GVSGraphEdge) element);
+      } else {
+        pRemoved.add(element);
+      }
+    }
+  }
 
-    Iterator<GVSDefaultVertex> vertexIt = gvsGraphVertizes.iterator();
-    while (vertexIt.hasNext()) {
-      GVSDefaultVertex tmp = (GVSDefaultVertex) vertexIt.next();
-      if (tmp == vertex1) {
-        vertex1Exist = true;
+  /**
+   * Forgets the ids, labels and fragments of the removed elements. The
+   * unchanged elements were not visited, so nothing is swept.
+   */
+  private void forget(List<Object> pRemoved) {
+    for (Object element : pRemoved) {
+      if (labelCache != null) {
+        labelCache.markDirty(element);
+        fragmentCache.markDirty(idRegistry.find(element));
       }
-      if (tmp == vertex2) {
-        vertex2Exist = true;
+      idRegistry.remove(element);
+    }
+  }
+
+  /**
+   * Writes the elements in chunks, if parallel serialization is enabled.
+   * Each chunk is encoded into its own buffer, the buffers are appended in
+   * the order of the elements.
+   *
+   * @return number of dropped elements
+   */
+  private <T> long writeElements(DocumentEncoder pWriter,
+      Collection<T> pElements, ElementBuilder<T> pBuilder) throws IOException {
+    long dropped = 0;
+    int chunkSize = Math.max(MIN_CHUNK_SIZE, pElements.size()
+        / (ForkJoinPool.getCommonPoolParallelism() * CHUNKS_PER_THREAD));
+    if (!parallel || pElements.size() < 2 * chunkSize) {
+      for (T element : pElements) {
+        if (!pBuilder.build(pWriter, element)) {
+          dropped++;
+        }
       }
+      return dropped;
     }
-    if (vertex1Exist == true && vertex2Exist == true && vertex1 != null
-        && vertex2 != null) {
 
-      Element directedEdge = pParent.addElement(EDGE);
-      directedEdge.addAttribute(ATTRIBUTEID, String.valueOf(pEdge.hashCode()));
-      directedEdge.addAttribute(ISDIRECTED, "true");
+    logger.debug("Build elements in chunks of {}", chunkSize);
+    List<T> elements = new ArrayList<>(pElements);
+    List<ForkJoinTask<Chunk>> chunks = new ArrayList<>();
+    for (int from = 0; from < elements.size(); from += chunkSize) {
+      List<T> part = elements.subList(from,
+          Math.min(from + chunkSize, elements.size()));
+      chunks.add(ForkJoinPool.commonPool()
+          .submit(() -> buildChunk(pWriter, part, pBuilder)));
+    }
+    for (ForkJoinTask<Chunk> task : chunks) {
+      Chunk chunk;
+      try {
+        chunk = task.get();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new IOException("Interrupted while building the elements", e);
+      } catch (ExecutionException e) {
+        if (e.getCause() instanceof RuntimeException) {
+          throw (RuntimeException) e.getCause();
+        }
+        throw new IOException("Building the elements failed", e.getCause());
+      }
+      if (chunk.data.length > 0) {
+        pWriter.writeFragment(chunk.data);
+      }
+      dropped += chunk.dropped;
+    }
+    return dropped;
+  }
+
+  private <T> Chunk buildChunk(DocumentEncoder pWriter, List<T> pElements,
+      ElementBuilder<T> pBuilder) throws IOException {
+    ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+    DocumentEncoder fragment = pWriter.createFragmentEncoder(buffer);
+    long dropped = 0;
+    for (T element : pElements) {
+      if (!pBuilder.build(fragment, element)) {
+        dropped++;
+      }
+    }
+    fragment.endDocument();
+    return new Chunk(buffer.toByteArray(), dropped);
+  }
+
+  /**
+   * Assigns the ids in the order of the sequential serialization, so the
+   * chunks only look them up and the output does not depend on the mode
+   */
+  private void registerIds(Collection<GVSDefaultVertex> pVertizes,
+      Collection<GVSGraphEdge> pEdges) {
+    for (GVSDefaultVertex vertex : pVertizes) {
+      if (vertex != null) {
+        idRegistry.idOf(vertex);
+      }
+    }
+    for (GVSGraphEdge edge : pEdges) {
+      if (hasVertizes(edge)) {
+        idRegistry.idOf(edge);
+      }
+    }
+  }
 
-      GVSStyle style = pEdge.getStyle();
-      if (style == null) {
-        style = new GVSStyle();
+  /**
+   * Compares the vertizes and edges with their state of the last display.
+   * An edge, which is not sent because of a missing vertex, is removed.
+   */
+  private void evaluateChanges(Collection<GVSDefaultVertex> pVertizes,
+      Collection<GVSGraphEdge> pEdges) {
+    logger.debug("Evaluate changes");
+    for (GVSDefaultVertex vertex : pVertizes) {
+      if (vertex != null) {
+        delta.updateVertex(vertex, idRegistry.idOf(vertex), labelOf(vertex),
+            styleOf(vertex));
+      }
+    }
+    for (GVSGraphEdge edge : pEdges) {
+      switch (GVSComponentType.of(edge)) {
+      case DIRECTED_EDGE:
+        GVSDirectedEdge directedEdge = (GVSDirectedEdge) edge;
+        GVSDefaultVertex start = directedEdge.getGVSStartVertex();
+        GVSDefaultVertex end = directedEdge.getGVSEndVertex();
+        if (hasVertizes(start, end)) {
+          delta.updateEdge(edge, idRegistry.idOf(edge), labelOf(edge),
+              styleOf(edge), idRegistry.idOf(start), idRegistry.idOf(end), 0);
+        } else {
+          delta.remove(edge);
+        }
+        break;
+      case UNDIRECTED_EDGE:
+        GVSUndirectedEdge undirectedEdge = (GVSUndirectedEdge) edge;
+        GVSDefaultVertex[] vertizes = undirectedEdge.getGVSVertizes();
+        if (hasVertizes(vertizes[0], vertizes[1])) {
+          delta.updateEdge(edge, idRegistry.idOf(edge), labelOf(edge),
+              styleOf(edge), idRegistry.idOf(vertizes[0]),
+              idRegistry.idOf(vertizes[1]), undirectedEdge.hasArrow());
+        } else {
+          delta.remove(edge);
+        }
+        break;
+      default:
+        break;
       }
+    }
+  }
 
-      Element label = directedEdge.addElement(LABEL);
-      String edgeLabel = pEdge.getGVSEdgeLabel();
-      if (edgeLabel == null) {
-        edgeLabel = "";
+  /**
+   * Evaluates the style of each vertex and edge once. The delta, the style
+   * table and the builders use the same style, also if the style of an
+   * element is not stable.
+   */
+  private Map<Object, GVSStyle> resolveStyles(
+      Collection<GVSDefaultVertex> pVertizes,
+      Collection<GVSGraphEdge> pEdges) {
+    Map<Object, GVSStyle> styles = new IdentityHashMap<>();
+    for (GVSDefaultVertex vertex : pVertizes) {
+      if (vertex != null) {
+        styles.put(vertex, styleOf(vertex));
+      }
+    }
+    for (GVSGraphEdge edge : pEdges) {
+      if (edge != null) {
+        styles.put(edge, styleOf(edge));
       }
-      label.addText(edgeLabel);
-      Element lineColor = directedEdge.addElement(LINECOLOR);
-      lineColor.addText(style.getLineColor().name());
-      Element lineStyle = directedEdge.addElement(LINESTYLE);
-      lineStyle.addText(style.getLineStyle().name());
-      Element lineThick = directedEdge.addElement(LINETHICKNESS);
-      lineThick.addText(style.getLineThickness().name());
-      Element fromVertex = directedEdge.addElement(FROMVERTEX);
-      fromVertex.addText(String.valueOf(pEdge.getGVSStartVertex().hashCode()));
-      Element toVertex = directedEdge.addElement(TOVERTEX);
-      toVertex.addText(String.valueOf(pEdge.getGVSEndVertex().hashCode()));
     }
+    return styles;
+  }
+
+  /**
+   * Fills the style table with the styles of the elements to be sent. The
+   * builders only look the styles up, so the table is not changed by the
+   * threads of the parallel serialization.
+   */
+  private void collectStyles(Collection<GVSDefaultVertex> pVertizes,
+      Collection<GVSGraphEdge> pEdges, boolean pFull) {
+    styleTable.clear();
+    for (GVSDefaultVertex vertex : pVertizes) {
+      if (vertex != null && (pFull || delta.hasChanged(vertex))) {
+        styleTable.intern(styleOf(vertex));
+      }
+    }
+    for (GVSGraphEdge edge : pEdges) {
+      if (edge != null && (pFull || delta.hasChanged(edge))) {
+        styleTable.intern(styleOf(edge));
+      }
+    }
+  }
+
+  /**
+   * @param pIncremental
+   *          true, if only the recorded changes were compared
+   * @param pRemoved
+   *          recorded elements, which are not part of the graph anymore
+   */
+  private void writeRemoved(DocumentEncoder pWriter, boolean pFull,
+      boolean pIncremental, List<Object> pRemoved) throws IOException {
+    if (!pIncremental) {
+      // All elements were compared, the others were removed
+      delta.sweep();
+    }
+    for (Object element : pRemoved) {
+      delta.remove(element);
+    }
+    if (pFull) {
+      return;
+    }
+    builder.buildRemoved(pWriter, delta.getRemovedVertizes(),
+        delta.getRemovedEdges());
+  }
+
+  private boolean buildVertex(DocumentEncoder pWriter,
+      GVSDefaultVertex pVertex, boolean pFull) throws IOException {
+    if (!pFull && !delta.hasChanged(pVertex)) {
+      return true;
+    }
+    if (fragmentCache != null && pVertex != null) {
+      return fragmentCache.write(pWriter, idRegistry.idOf(pVertex),
+          versionOf(pVertex), writer -> buildVertexElement(writer, pVertex));
+    }
+    return buildVertexElement(pWriter, pVertex);
+  }
+
+  private boolean buildVertexElement(DocumentEncoder pWriter,
+      GVSDefaultVertex pVertex) throws IOException {
+    switch (GVSComponentType.of(pVertex)) {
+    case RELATIVE_VERTEX:
+      logger.debug("Build RealtivVertex");
+      buildRelativVertex(pWriter, (GVSRelativeVertex) pVertex);
+      break;
+    case DEFAULT_VERTEX:
+      logger.debug("Build DefaultVertex");
+      buildDefaultVertex(pWriter, pVertex);
+      break;
+    default:
+      logger.warn("Vertex is null");
+      break;
+    }
+    return true;
+  }
+
+  /**
+   * @return false, if the edge was dropped
+   */
+  private boolean buildEdge(DocumentEncoder pWriter, GVSGraphEdge pEdge,
+      boolean pFull) throws IOException {
+    if (!pFull && !delta.hasChanged(pEdge)) {
+      return true;
+    }
+    if (fragmentCache != null && pEdge != null) {
+      if (!hasVertizes(pEdge)) {
+        logger.debug("Vertex of the edge not in graph. Edge dropped");
+        return false;
+      }
+      return fragmentCache.write(pWriter, idRegistry.idOf(pEdge),
+          versionOf(pEdge), writer -> buildEdgeElement(writer, pEdge));
+    }
+    return buildEdgeElement(pWriter, pEdge);
+  }
+
+  /**
+   * @return false, if the edge was dropped
+   */
+  private boolean buildEdgeElement(DocumentEncoder pWriter,
+      GVSGraphEdge pEdge) throws IOException {
+    switch (GVSComponentType.of(pEdge)) {
+    case DIRECTED_EDGE:
+      logger.debug("Build DirectedEdge");
+      return buildDirectedEdge(pWriter, (GVSDirectedEdge) pEdge);
+    case UNDIRECTED_EDGE:
+      logger.debug("Build UndirectedEdge");
+      return buildUndirectedEdge(pWriter, (GVSUndirectedEdge) pEdge);
+    default:
+      logger.warn("Edge is null");
+      return true;
+    }
+  }
+
+  private void buildDefaultVertex(DocumentEncoder pWriter,
+      GVSDefaultVertex pVertex) throws IOException {
+    logger.debug("Create DefaultVertex-->XML");
+    GVSStyle style = styleOf(pVertex);
+    builder.buildDefaultVertex(pWriter, idRegistry.idOf(pVertex),
+        labelOf(pVertex), style, styleIndexOf(style));
+  }
+
+  private void buildRelativVertex(DocumentEncoder pWriter,
+      GVSRelativeVertex pVertex) throws IOException {
+    logger.debug("Create RealtivVertex-->XML");
+    GVSStyle style = styleOf(pVertex);
+    builder.buildRelativVertex(pWriter, idRegistry.idOf(pVertex),
+        labelOf(pVertex), style, styleIndexOf(style), pVertex.getX(),
+        pVertex.getY());
+  }
+
+  /**
+   * @return index of the style in the style table, -1 without style table
+   */
+  private int styleIndexOf(GVSStyle pStyle) {
+    if (useStyleTable) {
+      return styleTable.indexOf(pStyle);
+    }
+    return -1;
+  }
+
+  /**
+   * @return version of a cached vertex, which depends on the style table
+   */
+  private int versionOf(GVSDefaultVertex pVertex) {
+    if (useStyleTable) {
+      return styleTable.indexOf(styleOf(pVertex));
+    }
+    return -1;
+  }
+
+  /**
+   * @return version of a cached edge, which depends on the style table
+   */
+  private int versionOf(GVSGraphEdge pEdge) {
+    if (useStyleTable) {
+      return styleTable.indexOf(styleOf(pEdge));
+    }
+    return -1;
+  }
+
+  private String labelOf(GVSDefaultVertex pVertex) {
+    if (labelCache == null) {
+      return pVertex.getGVSVertexLabel();
+    }
+    return labelCache.labelOf(pVertex);
+  }
+
+  private String labelOf(GVSGraphEdge pEdge) {
+    if (labelCache == null) {
+      return pEdge.getGVSEdgeLabel();
+    }
+    return labelCache.labelOf(pEdge);
+  }
+
+  private GVSStyle styleOf(GVSDefaultVertex pVertex) {
+    if (resolvedStyles != null) {
+      return resolvedStyles.get(pVertex);
+    }
+    if (labelCache == null) {
+      return pVertex.getStyle();
+    }
+    return labelCache.styleOf(pVertex);
+  }
+
+  private GVSStyle styleOf(GVSGraphEdge pEdge) {
+    if (resolvedStyles != null) {
+      return resolvedStyles.get(pEdge);
+    }
+    if (labelCache == null) {
+      return pEdge.getStyle();
+    }
+    return labelCache.styleOf(pEdge);
+  }
+
+  private boolean buildDirectedEdge(DocumentEncoder pWriter,
+      GVSDirectedEdge pEdge) throws IOException {
+    logger.debug("Create DirectedEdge-->XML");
+    GVSDefaultVertex vertex1 = pEdge.getGVSStartVertex();
+    GVSDefaultVertex vertex2 = pEdge.getGVSEndVertex();
+    if (!hasVertizes(vertex1, vertex2)) {
+      logger.debug("Vertex of the edge not in graph. Edge dropped");
+      return false;
+    }
+    GVSStyle style = styleOf(pEdge);
+    builder.buildEdge(pWriter, idRegistry.idOf(pEdge), true, 0,
+        labelOf(pEdge), style, styleIndexOf(style), idRegistry.idOf(vertex1),
+        idRegistry.idOf(vertex2));
+    return true;
   }
 
-  private void buildUndirectedEdge(Element pParent, GVSUndirectedEdge pEdge) {
+  private boolean buildUndirectedEdge(DocumentEncoder pWriter,
+      GVSUndirectedEdge pEdge) throws IOException {
     logger.debug("Create UnirectedEdge-->XML");
     GVSDefaultVertex vertex1 = pEdge.getGVSVertizes()[0];
     GVSDefaultVertex vertex2 = pEdge.getGVSVertizes()[1];
-    boolean vertex1Exist = false;
-    boolean vertex2Exist = false;
+    if (!hasVertizes(vertex1, vertex2)) {
+      logger.debug("Vertex of the edge not in graph. Edge dropped");
+      return false;
+    }
+    GVSStyle style = styleOf(pEdge);
+    builder.buildEdge(pWriter, idRegistry.idOf(pEdge), false,
+        pEdge.hasArrow(), labelOf(pEdge), style, styleIndexOf(style),
+        idRegistry.idOf(vertex1), idRegistry.idOf(vertex2));
+    return true;
+  }
 
-    Iterator<GVSDefaultVertex> vertexIt = gvsGraphVertizes.iterator();
-    while (vertexIt.hasNext()) {
-      GVSDefaultVertex tmp = (GVSDefaultVertex) vertexIt.next();
-      if (tmp == vertex1) {
-        vertex1Exist = true;
+  private void addVertex(GVSDefaultVertex pGVSVertex) {
+    synchronized (elementLock) {
+      checkForMixedGraph(pGVSVertex);
+      GVSGraphElements current = modifiable();
+      if (current.getVertizes().add(pGVSVertex)) {
+        current.getVertexIndex().add(pGVSVertex);
+        if (pGVSVertex instanceof GVSRelativeVertex) {
+          relativeVertexCount++;
+        } else {
+          defaultVertexCount++;
+        }
+        recordChange(pGVSVertex);
+        // Edges added before their vertex are sent with it
+        List<GVSGraphEdge> edges = this.incidentEdges.get(pGVSVertex);
+        if (edges != null) {
+          edges.forEach(this::recordChange);
+        }
       }
-      if (tmp == vertex2) {
-        vertex2Exist = true;
+    }
+  }
+
+  /**
+   * Must be called with the element lock
+   */
+  private void removeVertex(GVSDefaultVertex pGVSVertex) {
+    GVSGraphElements current = modifiable();
+    if (!current.getVertizes().remove(pGVSVertex)) {
+      return;
+    }
+    GVSDefaultVertex removed = pGVSVertex;
+    if (!current.getVertexIndex().remove(pGVSVertex)) {
+      // An equal vertex with another reference was removed from the set
+      Iterator<GVSDefaultVertex> indexIt = current.getVertexIndex()
+          .iterator();
+      while (indexIt.hasNext()) {
+        GVSDefaultVertex vertex = indexIt.next();
+        if (!current.getVertizes().contains(vertex)) {
+          removed = vertex;
+          indexIt.remove();
+          break;
+        }
       }
     }
-    if (vertex1Exist == true && vertex2Exist == true && vertex1 != null
-        && vertex2 != null) {
-      Element undirectedEdge = pParent.addElement(EDGE);
-      undirectedEdge.addAttribute(ATTRIBUTEID,
-          String.valueOf(pEdge.hashCode()));
-      int arrowPos = pEdge.hasArrow();
-      undirectedEdge.addAttribute(ISDIRECTED, "false");
-      undirectedEdge.addAttribute(ARROWPOS, String.valueOf(arrowPos));
+    if (removed instanceof GVSRelativeVertex) {
+      relativeVertexCount--;
+    } else {
+      defaultVertexCount--;
+    }
+    recordChange(removed);
+  }
 
-      GVSStyle nodeStyle = pEdge.getStyle();
-      if (nodeStyle == null) {
-        nodeStyle = new GVSStyle();
+  private void addEdge(GVSGraphEdge pGVSEdge, GVSDefaultVertex[] pVertizes) {
+    synchronized (elementLock) {
+      GVSGraphElements current = modifiable();
+      if (current.getEdges().containsKey(pGVSEdge)) {
+        return;
       }
-      Element label = undirectedEdge.addElement(LABEL);
-      String edgeLabel = pEdge.getGVSEdgeLabel();
-      if (edgeLabel == null) {
-        edgeLabel = "";
+      GVSDefaultVertex[] vertizes = pVertizes.clone();
+      current.getEdges().put(pGVSEdge, vertizes);
+      recordChange(pGVSEdge);
+      for (int count = 0; count < vertizes.length; count++) {
+        GVSDefaultVertex vertex = vertizes[count];
+        if (vertex != null && !containsBefore(vertizes, count)) {
+          List<GVSGraphEdge> edges = this.incidentEdges.get(vertex);
+          if (edges == null) {
+            edges = new ArrayList<>(2);
+            this.incidentEdges.put(vertex, edges);
+          }
+          edges.add(pGVSEdge);
+        }
       }
-      label.addText(edgeLabel);
-      Element lineColor = undirectedEdge.addElement(LINECOLOR);
-      lineColor.addText(nodeStyle.getLineColor().name());
-      Element lineStyle = undirectedEdge.addElement(LINESTYLE);
-      lineStyle.addText(nodeStyle.getLineStyle().name());
-      Element lineThick = undirectedEdge.addElement(LINETHICKNESS);
-      lineThick.addText(nodeStyle.getLineThickness().name());
+    }
+  }
 
-      Element fromVertex = undirectedEdge.addElement(FROMVERTEX);
-      fromVertex.addText(String.valueOf(pEdge.getGVSVertizes()[0].hashCode()));
-      Element toVertex = undirectedEdge.addElement(TOVERTEX);
-      toVertex.addText(String.valueOf(pEdge.getGVSVertizes()[1].hashCode()));
+  /**
+   * Removes the vertizes and all their edges. The edges are collected over
+   * the incident edges of each vertex, the other edges are not visited.
+   */
+  private void removeVertizes(
+      Collection<? extends GVSDefaultVertex> pVertizes) {
+    synchronized (elementLock) {
+      Set<GVSGraphEdge> toRemove = new HashSet<>();
+      for (GVSDefaultVertex vertex : pVertizes) {
+        List<GVSGraphEdge> edges = this.incidentEdges.remove(vertex);
+        if (edges != null) {
+          toRemove.addAll(edges);
+          logger.debug("Edges to remove found");
+        }
+        removeVertex(vertex);
+      }
+      removeEdges(toRemove);
     }
   }
 
+  /**
+   * Removes the edges and updates the incident edges of all affected
+   * vertizes in one pass.
+   */
+  private void removeEdges(Collection<? extends GVSGraphEdge> pEdges) {
+    Set<GVSGraphEdge> removed = new HashSet<>();
+    Set<GVSDefaultVertex> affected = Collections
+        .newSetFromMap(new IdentityHashMap<GVSDefaultVertex, Boolean>());
+    synchronized (elementLock) {
+      GVSGraphElements current = modifiable();
+      for (GVSGraphEdge edge : pEdges) {
+        GVSDefaultVertex[] vertizes = current.getEdges().remove(edge);
+        if (vertizes != null) {
+          removed.add(edge);
+          affected.addAll(Arrays.asList(vertizes));
+          recordChange(edge);
+        }
+      }
+      for (GVSDefaultVertex vertex : affected) {
+        List<GVSGraphEdge> edges = this.incidentEdges.get(vertex);
+        if (edges != null) {
+          edges.removeIf(removed::contains);
+          if (edges.isEmpty()) {
+            this.incidentEdges.remove(vertex);
+          }
+        }
+      }
+    }
+    logger.debug("Remove founded Edges");
+  }
+
+  /**
+   * Records a changed vertex or edge for the next display in delta mode
+   */
+  private void recordChange(Object pElement) {
+    synchronized (elementLock) {
+      if (changes != null) {
+        changes.add(pElement);
+      }
+    }
+  }
+
+  private boolean containsBefore(GVSDefaultVertex[] pVertizes, int pIndex) {
+    for (int count = 0; count < pIndex; count++) {
+      if (pVertizes[count] == pVertizes[pIndex]) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * @return true, if both vertizes of the edge are part of the graph
+   */
+  private boolean hasVertizes(GVSGraphEdge pEdge) {
+    switch (GVSComponentType.of(pEdge)) {
+    case DIRECTED_EDGE:
+      GVSDirectedEdge directedEdge = (GVSDirectedEdge) pEdge;
+      return hasVertizes(directedEdge.getGVSStartVertex(),
+          directedEdge.getGVSEndVertex());
+    case UNDIRECTED_EDGE:
+      GVSDefaultVertex[] vertizes = ((GVSUndirectedEdge) pEdge)
+          .getGVSVertizes();
+      return hasVertizes(vertizes[0], vertizes[1]);
+    default:
+      return false;
+    }
+  }
+
+  private boolean hasVertizes(GVSDefaultVertex pVertex1,
+      GVSDefaultVertex pVertex2) {
+    return pVertex1 != null && pVertex2 != null
+        && displayed.contains(pVertex1) && displayed.contains(pVertex2);
+  }
+
   /**
    * Check wheter the graph is mixed, i.e. contains default and relative
    * vertices.
@@ -702,25 +1390,42 @@ public class GVSGraph {
    *          the vertex to be added
    */
   private void checkForMixedGraph(GVSDefaultVertex pGVSVertex) {
-    if (gvsGraphVertizes.isEmpty()) {
-      return;
-    }
     if (pGVSVertex instanceof GVSRelativeVertex) {
       // new vertex is GVSRelativeVertex.
       // if **not all** other vertices are GVSRelativeVertex, graph is mixed
-      if (!gvsGraphVertizes.stream()
-          .allMatch(GVSRelativeVertex.class::isInstance)) {
+      if (defaultVertexCount > 0) {
         throw new IllegalArgumentException(
             "Cannot mix default and relative vertices in a graph");
       }
     } else {
       // new vertex is GVSDefaultVertex
       // if **any** other vertex is GVSRelativeVertex, graph is mixed
-      if (gvsGraphVertizes.stream()
-          .anyMatch(GVSRelativeVertex.class::isInstance)) {
+      if (relativeVertexCount > 0) {
         throw new IllegalArgumentException(
             "Cannot mix default and relative vertices in a graph");
       }
     }
   }
+
+  /**
+   * Writes an element
+   *
+   * @return false, if the element was dropped
+   */
+  private interface ElementBuilder<T> {
+    boolean build(DocumentEncoder pWriter, T pElement) throws IOException;
+  }
+
+  /**
+   * Encoded chunk of elements
+   */
+  private static class Chunk {
+    private final byte[] data;
+    private final long dropped;
+
+    Chunk(byte[] pData, long pDropped) {
+      this.data = pData;
+      this.dropped = pDropped;
+    }
+  }
 }
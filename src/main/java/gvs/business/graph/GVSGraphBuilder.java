@@ -0,0 +1,173 @@
+package gvs.business.graph;
+
+import java.io.IOException;
+import java.util.List;
+
+import gvs.access.DocumentEncoder;
+import gvs.business.styles.GVSStyle;
+
+/**
+ * Writes the elements of a graph document. It is shared by GVSGraph and
+ * GVSCompactGraph, so both send the same format. The callers resolve the
+ * ids, labels and styles, null labels and styles are written as empty
+ * label and default style.
+ * <p>
+ * A style index of 0 or more refers to the style table of the document. With
+ * a negative index, the style is written into the element.
+ */
+class GVSGraphBuilder {
+
+  // Generally
+  private final String ROOT = "GVS";
+  private final String ATTRIBUTEID = "Id";
+  private final String LABEL = "Label";
+  private final String FILLCOLOR = "Fillcolor";
+  private final String ICON = "Icon";
+  private final String LINECOLOR = "Linecolor";
+  private final String LINESTYLE = "Linestyle";
+  private final String LINETHICKNESS = "Linethickness";
+
+  // Graph
+  private final String GRAPH = "Graph";
+  private final String VERTIZES = "Vertizes";
+  private final String RELATIVVERTEX = "RelativVertex";
+  private final String DEFAULTVERTEX = "DefaultVertex";
+  private final String XPOS = "XPos";
+  private final String YPOS = "YPos";
+  private final String EDGES = "Edges";
+  private final String EDGE = "Edge";
+  private final String ISDIRECTED = "IsDirected";
+  private final String FROMVERTEX = "FromVertex";
+  private final String TOVERTEX = "ToVertex";
+  private final String ARROWPOS = "DrawArrowOnPosition";
+
+  // Delta
+  private final String DELTA = "Delta";
+  private final String REMOVEDVERTIZES = "RemovedVertizes";
+  private final String REMOVEDEDGES = "RemovedEdges";
+
+  // Styles
+  private final String STYLE = "Style";
+
+  /**
+   * Starts the document with the graph element. It is ended with
+   * endElement().
+   *
+   * @param pDelta
+   *          true, if only the changes since the last document are sent
+   */
+  void startGraph(DocumentEncoder pWriter, long pId, String pName,
+      boolean pDelta) throws IOException {
+    pWriter.startElement(ROOT);
+
+    pWriter.startElement(GRAPH);
+    pWriter.attribute(ATTRIBUTEID, pId);
+    if (pDelta) {
+      pWriter.attribute(DELTA, "true");
+    }
+    pWriter.element(LABEL, pName);
+    pWriter.endElement();
+  }
+
+  /**
+   * Starts the vertizes. They are ended with endElement().
+   */
+  void startVertizes(DocumentEncoder pWriter) throws IOException {
+    pWriter.startElement(VERTIZES);
+  }
+
+  /**
+   * Starts the edges. They are ended with endElement().
+   */
+  void startEdges(DocumentEncoder pWriter) throws IOException {
+    pWriter.startElement(EDGES);
+  }
+
+  void endElement(DocumentEncoder pWriter) throws IOException {
+    pWriter.endElement();
+  }
+
+  void buildRemoved(DocumentEncoder pWriter, List<Long> pVertizes,
+      List<Long> pEdges) throws IOException {
+    pWriter.startElement(REMOVEDVERTIZES);
+    for (long id : pVertizes) {
+      pWriter.element(ATTRIBUTEID, id);
+    }
+    pWriter.endElement();
+    pWriter.startElement(REMOVEDEDGES);
+    for (long id : pEdges) {
+      pWriter.element(ATTRIBUTEID, id);
+    }
+    pWriter.endElement();
+  }
+
+  void buildDefaultVertex(DocumentEncoder pWriter, long pId, String pLabel,
+      GVSStyle pStyle, int pStyleIndex) throws IOException {
+    pWriter.startElement(DEFAULTVERTEX);
+    pWriter.attribute(ATTRIBUTEID, pId);
+    buildStyleAndLabel(pWriter, pLabel, pStyle, pStyleIndex);
+    pWriter.endElement();
+  }
+
+  void buildRelativVertex(DocumentEncoder pWriter, long pId, String pLabel,
+      GVSStyle pStyle, int pStyleIndex, double pX, double pY)
+      throws IOException {
+    pWriter.startElement(RELATIVVERTEX);
+    pWriter.attribute(ATTRIBUTEID, pId);
+    buildStyleAndLabel(pWriter, pLabel, pStyle, pStyleIndex);
+    pWriter.element(XPOS, pX);
+    pWriter.element(YPOS, pY);
+    pWriter.endElement();
+  }
+
+  /**
+   * @param pArrowPos
+   *          position of the arrow of an undirected edge
+   */
+  void buildEdge(DocumentEncoder pWriter, long pId, boolean pDirected,
+      int pArrowPos, String pLabel, GVSStyle pStyle, int pStyleIndex,
+      long pFrom, long pTo) throws IOException {
+    pWriter.startElement(EDGE);
+    pWriter.attribute(ATTRIBUTEID, pId);
+    if (pDirected) {
+      pWriter.attribute(ISDIRECTED, "true");
+    } else {
+      pWriter.attribute(ISDIRECTED, "false");
+      pWriter.attribute(ARROWPOS, pArrowPos);
+    }
+    if (pStyleIndex >= 0) {
+      pWriter.attribute(STYLE, pStyleIndex);
+    }
+    pWriter.element(LABEL, pLabel == null ? "" : pLabel);
+    if (pStyleIndex < 0) {
+      buildLineStyle(pWriter, pStyle == null ? GVSStyle.DEFAULT : pStyle);
+    }
+    pWriter.element(FROMVERTEX, pFrom);
+    pWriter.element(TOVERTEX, pTo);
+    pWriter.endElement();
+  }
+
+  private void buildStyleAndLabel(DocumentEncoder pWriter, String pLabel,
+      GVSStyle pStyle, int pStyleIndex) throws IOException {
+    if (pStyleIndex >= 0) {
+      pWriter.attribute(STYLE, pStyleIndex);
+    }
+    pWriter.element(LABEL, pLabel == null ? "" : pLabel);
+    if (pStyleIndex >= 0) {
+      return;
+    }
+    GVSStyle style = pStyle == null ? GVSStyle.DEFAULT : pStyle;
+    buildLineStyle(pWriter, style);
+    pWriter.element(FILLCOLOR, style.getFillColor());
+    if (style.getIcon() != null) {
+      pWriter.element(ICON, style.getIcon());
+    }
+  }
+
+  private void buildLineStyle(DocumentEncoder pWriter, GVSStyle pStyle)
+      throws IOException {
+    pWriter.element(LINECOLOR, pStyle.getLineColor());
+    pWriter.element(LINESTYLE, pStyle.getLineStyle());
+    pWriter.element(LINETHICKNESS, pStyle.getLineThickness());
+  }
+}
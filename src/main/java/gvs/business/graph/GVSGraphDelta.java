@@ -0,0 +1,223 @@
+package gvs.business.graph;
+
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+import gvs.business.styles.GVSColor;
+import gvs.business.styles.GVSIcon;
+import gvs.business.styles.GVSLineStyle;
+import gvs.business.styles.GVSLineThickness;
+import gvs.business.styles.GVSStyle;
+
+/**
+ * Remembers the vertizes and edges, which were sent to the server with the
+ * last display. It is used to send only the changes of a graph. A full
+ * snapshot is needed for the first display and after a reconnect. Between
+ * them, only the changed elements are updated and the removed ones are
+ * forgotten one by one.
+ */
+class GVSGraphDelta {
+
+  private final Map<GVSDefaultVertex, ElementState> vertizes;
+  private final Map<GVSGraphEdge, ElementState> edges;
+  private final List<Long> removedVertizes = new ArrayList<>();
+  private final List<Long> removedEdges = new ArrayList<>();
+  private long generation = 0;
+  private long connection = -1;
+
+  GVSGraphDelta() {
+    this.vertizes = new IdentityHashMap<>();
+    this.edges = new IdentityHashMap<>();
+  }
+
+  /**
+   * Starts the evaluation of a new display
+   *
+   * @param pConnection
+   *          number of the current connection to the server
+   * @return true, if a full snapshot has to be sent
+   */
+  boolean begin(long pConnection) {
+    generation++;
+    removedVertizes.clear();
+    removedEdges.clear();
+    boolean full = pConnection != connection;
+    connection = pConnection;
+    return full;
+  }
+
+  /**
+   * Forgets the sent state, e.g. after a failed transfer. The next display
+   * sends a full snapshot.
+   */
+  void reset() {
+    connection = -1;
+    vertizes.clear();
+    edges.clear();
+  }
+
+  void updateVertex(GVSDefaultVertex pVertex, long pId, String pLabel,
+      GVSStyle pStyle) {
+    ElementState state = vertizes.get(pVertex);
+    if (state == null) {
+      state = new ElementState();
+      vertizes.put(pVertex, state);
+    }
+    state.begin(generation, pId, removedVertizes);
+    state.update(pLabel, pStyle);
+    if (pVertex instanceof GVSRelativeVertex) {
+      GVSRelativeVertex vertex = (GVSRelativeVertex) pVertex;
+      state.updatePosition(vertex.getX(), vertex.getY());
+    }
+  }
+
+  void updateEdge(GVSGraphEdge pEdge, long pId, String pLabel,
+      GVSStyle pStyle, long pFromId, long pToId, int pArrowPos) {
+    ElementState state = edges.get(pEdge);
+    if (state == null) {
+      state = new ElementState();
+      edges.put(pEdge, state);
+    }
+    state.begin(generation, pId, removedEdges);
+    state.update(pLabel, pStyle);
+    state.updateVertizes(pFromId, pToId, pArrowPos);
+  }
+
+  /**
+   * @return true, if the vertex is new or changed since the last display
+   */
+  boolean hasChanged(GVSDefaultVertex pVertex) {
+    ElementState state = vertizes.get(pVertex);
+    return state == null || state.changed;
+  }
+
+  /**
+   * @return true, if the edge is new or changed since the last display
+   */
+  boolean hasChanged(GVSGraphEdge pEdge) {
+    ElementState state = edges.get(pEdge);
+    return state == null || state.changed;
+  }
+
+  /**
+   * Forgets an element, which is not sent anymore, e.g. because it was
+   * removed from the graph
+   *
+   * @param pElement
+   *          the vertex or edge
+   */
+  void remove(Object pElement) {
+    ElementState state = vertizes.remove(pElement);
+    if (state != null) {
+      removedVertizes.add(state.id);
+    }
+    state = edges.remove(pElement);
+    if (state != null) {
+      removedEdges.add(state.id);
+    }
+  }
+
+  /**
+   * Removes the vertizes and edges, which were not updated in this display.
+   * Used, if all elements of the graph were compared.
+   */
+  void sweep() {
+    sweep(vertizes, removedVertizes);
+    sweep(edges, removedEdges);
+  }
+
+  /**
+   * @return ids of the vertizes to be removed on the server
+   */
+  List<Long> getRemovedVertizes() {
+    return removedVertizes;
+  }
+
+  /**
+   * @return ids of the edges to be removed on the server
+   */
+  List<Long> getRemovedEdges() {
+    return removedEdges;
+  }
+
+  private void sweep(Map<?, ElementState> pStates, List<Long> pRemoved) {
+    Iterator<ElementState> stateIt = pStates.values().iterator();
+    while (stateIt.hasNext()) {
+      ElementState state = stateIt.next();
+      if (state.generation != generation) {
+        pRemoved.add(state.id);
+        stateIt.remove();
+      }
+    }
+  }
+
+  /**
+   * Values of an element as they were sent
+   */
+  private static class ElementState {
+    private long generation;
+    private boolean changed;
+    private long id;
+    private String label;
+    private GVSColor lineColor;
+    private GVSLineStyle lineStyle;
+    private GVSLineThickness lineThickness;
+    private GVSColor fillColor;
+    private GVSIcon icon;
+    private double xPos;
+    private double yPos;
+    private long fromVertex;
+    private long toVertex;
+    private int arrowPos;
+
+    void begin(long pGeneration, long pId, List<Long> pRemoved) {
+      // A new state has generation 0
+      boolean sent = generation != 0;
+      this.generation = pGeneration;
+      this.changed = !sent || pId != id;
+      if (changed && sent) {
+        pRemoved.add(id);
+      }
+      this.id = pId;
+    }
+
+    void update(String pLabel, GVSStyle pStyle) {
+      GVSStyle style = pStyle;
+      if (style == null) {
+        style = GVSStyle.DEFAULT;
+      }
+      String newLabel = pLabel;
+      if (newLabel == null) {
+        newLabel = "";
+      }
+      changed |= !newLabel.equals(label) || lineColor != style.getLineColor()
+          || lineStyle != style.getLineStyle()
+          || lineThickness != style.getLineThickness()
+          || fillColor != style.getFillColor() || icon != style.getIcon();
+      label = newLabel;
+      lineColor = style.getLineColor();
+      lineStyle = style.getLineStyle();
+      lineThickness = style.getLineThickness();
+      fillColor = style.getFillColor();
+      icon = style.getIcon();
+    }
+
+    void updatePosition(double pXPos, double pYPos) {
+      changed |= Double.compare(xPos, pXPos) != 0
+          || Double.compare(yPos, pYPos) != 0;
+      xPos = pXPos;
+      yPos = pYPos;
+    }
+
+    void updateVertizes(long pFrom, long pTo, int pArrowPos) {
+      changed |= fromVertex != pFrom || toVertex != pTo
+          || arrowPos != pArrowPos;
+      fromVertex = pFrom;
+      toVertex = pTo;
+      arrowPos = pArrowPos;
+    }
+  }
+}
@@ -0,0 +1,65 @@
+package gvs.business.graph;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Vertizes and edges of a graph, which are sent with a display. In the
+ * concurrent mode, a display reads the elements as they were at its start,
+ * while the graph changes a copy of them.
+ */
+class GVSGraphElements {
+
+  private final Set<GVSDefaultVertex> vertizes;
+  private final Map<GVSGraphEdge, GVSDefaultVertex[]> edges;
+  // Index of the vertizes by reference, used to validate the edges
+  private final Set<GVSDefaultVertex> vertexIndex;
+
+  GVSGraphElements() {
+    this.vertizes = new HashSet<>();
+    this.edges = new HashMap<>();
+    this.vertexIndex = Collections
+        .newSetFromMap(new IdentityHashMap<GVSDefaultVertex, Boolean>());
+  }
+
+  private GVSGraphElements(GVSGraphElements pElements) {
+    this.vertizes = new HashSet<>(pElements.vertizes);
+    // The vertizes of an edge are not changed after it is added
+    this.edges = new HashMap<>(pElements.edges);
+    this.vertexIndex = Collections.newSetFromMap(
+        new IdentityHashMap<GVSDefaultVertex, Boolean>(
+            pElements.vertexIndex.size()));
+    this.vertexIndex.addAll(pElements.vertexIndex);
+  }
+
+  /**
+   * @return a copy, which can be changed independently of this elements
+   */
+  GVSGraphElements copy() {
+    return new GVSGraphElements(this);
+  }
+
+  Set<GVSDefaultVertex> getVertizes() {
+    return vertizes;
+  }
+
+  Map<GVSGraphEdge, GVSDefaultVertex[]> getEdges() {
+    return edges;
+  }
+
+  Set<GVSDefaultVertex> getVertexIndex() {
+    return vertexIndex;
+  }
+
+  /**
+   * @return true, if the vertex itself, not only an equal one, is part of
+   *         the graph
+   */
+  boolean contains(GVSDefaultVertex pVertex) {
+    return vertexIndex.contains(pVertex);
+  }
+}
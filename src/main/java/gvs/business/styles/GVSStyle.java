@@ -1,7 +1,17 @@
 package gvs.business.styles;
 
+/**
+ * Immutable style of a vertex, edge or tree node. Missing values are set to
+ * the standard values. Styles with the same values are equal, so they can be
+ * shared.
+ */
 public class GVSStyle {
 
+  /**
+   * Shared style with the standard values
+   */
+  public static final GVSStyle DEFAULT = new GVSStyle();
+
   private final GVSColor lineColor;
   private final GVSLineStyle lineStyle;
   private final GVSLineThickness lineThickness;
@@ -71,4 +81,30 @@ public class GVSStyle {
   public GVSIcon getIcon() {
     return icon;
   }
+
+  @Override
+  public boolean equals(Object pObject) {
+    if (this == pObject) {
+      return true;
+    }
+    if (pObject == null || pObject.getClass() != getClass()) {
+      return false;
+    }
+    GVSStyle other = (GVSStyle) pObject;
+    return lineColor == other.lineColor && lineStyle == other.lineStyle
+        && lineThickness == other.lineThickness
+        && fillColor == other.fillColor && icon == other.icon;
+  }
+
+  @Override
+  public int hashCode() {
+    int result = lineColor.hashCode();
+    result = 31 * result + lineStyle.hashCode();
+    result = 31 * result + lineThickness.hashCode();
+    result = 31 * result + fillColor.hashCode();
+    if (icon != null) {
+      result = 31 * result + icon.hashCode();
+    }
+    return result;
+  }
 }
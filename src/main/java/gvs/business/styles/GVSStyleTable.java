@@ -0,0 +1,109 @@
+package gvs.business.styles;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import gvs.access.DocumentEncoder;
+
+/**
+ * Distinct styles of a document. Each style is sent once in the style table,
+ * the elements reference it by its index. The table is filled before the
+ * elements are written and cleared for the next document.
+ */
+public class GVSStyleTable {
+
+  private final String STYLES = "Styles";
+  private final String STYLE = "Style";
+  private final String ATTRIBUTEID = "Id";
+  private final String FILLCOLOR = "Fillcolor";
+  private final String ICON = "Icon";
+  private final String LINECOLOR = "Linecolor";
+  private final String LINESTYLE = "Linestyle";
+  private final String LINETHICKNESS = "Linethickness";
+
+  private final Map<GVSStyle, Integer> indexes = new HashMap<>();
+  private final List<GVSStyle> styles = new ArrayList<>();
+
+  /**
+   * Adds a style to the table, if it is not contained yet
+   *
+   * @param pStyle
+   *          the style. Null stands for the default style
+   * @return index of the style
+   */
+  public int intern(GVSStyle pStyle) {
+    GVSStyle style = pStyle;
+    if (style == null) {
+      style = GVSStyle.DEFAULT;
+    }
+    Integer index = indexes.get(style);
+    if (index == null) {
+      index = styles.size();
+      indexes.put(style, index);
+      styles.add(style);
+    }
+    return index;
+  }
+
+  /**
+   * Looks a style up without changing the table, so it can be called by
+   * several threads once the table is filled
+   *
+   * @param pStyle
+   *          the style. Null stands for the default style
+   * @return index of the style
+   * @throws IllegalArgumentException
+   *           if the style was not added before
+   */
+  public int indexOf(GVSStyle pStyle) {
+    GVSStyle style = pStyle;
+    if (style == null) {
+      style = GVSStyle.DEFAULT;
+    }
+    Integer index = indexes.get(style);
+    if (index == null) {
+      throw new IllegalArgumentException("Style not in the table");
+    }
+    return index;
+  }
+
+  public int size() {
+    return styles.size();
+  }
+
+  /**
+   * Removes all styles for the next document
+   */
+  public void clear() {
+    indexes.clear();
+    styles.clear();
+  }
+
+  /**
+   * Writes the table. The index of a style is its id.
+   *
+   * @param pWriter
+   *          target of the document
+   * @throws IOException
+   */
+  public void write(DocumentEncoder pWriter) throws IOException {
+    pWriter.startElement(STYLES);
+    for (int index = 0; index < styles.size(); index++) {
+      GVSStyle style = styles.get(index);
+      pWriter.startElement(STYLE);
+      pWriter.attribute(ATTRIBUTEID, index);
+      pWriter.element(LINECOLOR, style.getLineColor());
+      pWriter.element(LINESTYLE, style.getLineStyle());
+      pWriter.element(LINETHICKNESS, style.getLineThickness());
+      pWriter.element(FILLCOLOR, style.getFillColor());
+      if (style.getIcon() != null) {
+        pWriter.element(ICON, style.getIcon());
+      }
+      pWriter.endElement();
+    }
+    pWriter.endElement();
+  }
+}
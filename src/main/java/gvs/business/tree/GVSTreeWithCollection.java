@@ -1,21 +1,32 @@
-
 package gvs.business.tree;
 
+import java.io.IOException;
+import java.util.ArrayDeque;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.Deque;
 import java.util.HashSet;
+import java.util.IdentityHashMap;
 import java.util.Iterator;
-import java.util.Vector;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
 
-import org.dom4j.Document;
-import org.dom4j.DocumentException;
-import org.dom4j.DocumentHelper;
-import org.dom4j.Element;
-import org.dom4j.io.SAXReader;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import gvs.access.ConnectionCleaner;
+import gvs.access.DocumentEncoder;
+import gvs.access.FrameRateLimiter;
+import gvs.access.OverflowPolicy;
 import gvs.access.XMLConnection;
+import gvs.access.XMLConnectionFactory;
+import gvs.business.GVSComponentType;
+import gvs.business.GVSFragmentCache;
+import gvs.business.GVSIdRegistry;
+import gvs.business.GVSLabelCache;
 import gvs.business.styles.GVSStyle;
+import gvs.business.styles.GVSStyleTable;
 
 /**
  * 
@@ -30,23 +41,30 @@ import gvs.business.styles.GVSStyle;
  * 
  * @author mkoller
  */
-public class GVSTreeWithCollection {
+public class GVSTreeWithCollection implements AutoCloseable {
 
   // datas
-  private Document document = null;
-  private String host = null;
-  private int port = 0;
   private XMLConnection xmlConnection = null;
+  private final FrameRateLimiter frameRateLimiter = new FrameRateLimiter(
+      this::send);
+
+  // Styles of the current document, if the server accepts a style table
+  private final GVSStyleTable styleTable = new GVSStyleTable();
+  private boolean useStyleTable = false;
+  // Styles of the nodes, evaluated once per display for the style table
+  private Map<GVSTreeNode, GVSStyle> resolvedStyles = null;
+
+  // Ids of the nodes, stable over all displays
+  private final GVSIdRegistry idRegistry = new GVSIdRegistry();
+
+  // Labels and styles of the last displays, if they are cached
+  private GVSLabelCache labelCache = null;
+  private GVSFragmentCache fragmentCache = null;
+  private boolean parallelEvaluation = false;
   private long gvsTreeId = 0;
   private String gvsTreeName = "";
   private HashSet<GVSTreeNode> gvsTreeNodes = null;
 
-  // Config
-  private final String GVSPORTFILE = "GVSPortFile";
-  private final String GVSHOST = "GVSHost";
-  private final String GVSPORT = "GVSPort";
-  private final String NO_GVS = "NoGVS";
-
   // Generaly
   private final String ROOT = "GVS";
   private final String ATTRIBUTEID = "Id";
@@ -56,6 +74,7 @@ public class GVSTreeWithCollection {
   private final String LINESTYLE = "Linestyle";
   private final String LINETHICKNESS = "Linethickness";
   private final String STANDARD = "standard";
+  private final String STYLE = "Style";
 
   // Tree
   private final String TREE = "Tree";
@@ -72,7 +91,7 @@ public class GVSTreeWithCollection {
 
   // If Connection to Server shall be used:
   private boolean connectToServer = false;
-  private boolean connected = false;
+  private ConnectionCleaner.Cleanable cleanable = null;
 
   /**
    * Init the tree and the connection
@@ -80,6 +99,18 @@ public class GVSTreeWithCollection {
    * @param pGVSTreeName
    */
   public GVSTreeWithCollection(String pGVSTreeName) {
+    this(pGVSTreeName, XMLConnectionFactory.getInstance().createConnection(),
+        XMLConnectionFactory.getInstance().isEnabled());
+  }
+
+  /**
+   * Creates the tree on the given connection, e.g. to a test server
+   *
+   * @param pConnect
+   *          false, if nothing should be sent
+   */
+  GVSTreeWithCollection(String pGVSTreeName, XMLConnection pConnection,
+      boolean pConnect) {
     this.gvsTreeId = System.currentTimeMillis();
     this.gvsTreeName = pGVSTreeName;
     gvsTreeNodes = new HashSet<>();
@@ -88,61 +119,16 @@ public class GVSTreeWithCollection {
       gvsTreeName = "";
     }
 
-    String propPortfile = System.getProperty(GVSPORTFILE);
-    String propHost = System.getProperty(GVSHOST);
-    String propPort = System.getProperty(GVSPORT);
-    connectToServer = System.getProperty(NO_GVS) != null ? false : true;
-
-    // Set Portfilepath from VM
-    if (propPortfile != null) {
-      SAXReader reader = new SAXReader();
-      logger.info("Load Communication from Portfile");
-      try {
-        // Read Portfile
-        Document document = reader.read(propPortfile);
-        Element docRoot = document.getRootElement();
-        Element eHost = docRoot.element("Host");
-        Element ePort = docRoot.element("Port");
-        if (eHost != null && ePort != null) {
-          host = eHost.getText();
-          port = Integer.parseInt(ePort.getText());
-        } else {
-          logger.error("Error while loading Portfile. System exit");
-          System.exit(0);
-        }
-
-      } catch (DocumentException e) {
-        logger.error("Error while loading Portfile. System exit");
-        System.exit(0);
-      }
-    }
-
-    // Set Host and Port from VM
-    else if (propHost != null && propPort != null) {
-      logger.info("Load Communication from Host and Port");
-      try {
-        this.host = propHost;
-        this.port = Integer.parseInt(propPort);
-      } catch (Exception ex) {
-        logger.error("Error Port or Host. System exit");
-        System.exit(0);
-      }
-
-    }
-
-    // Set Defaultvalues
-    else {
-      logger.info("Set default for host and Port");
-      this.host = "127.0.0.1";
-      this.port = 3000;
-      logger.info("Host: " + host + " Port: " + port);
-    }
-    xmlConnection = new XMLConnection(host, port);
+    connectToServer = pConnect;
+    xmlConnection = pConnection;
     if (connectToServer) {
-      String result = xmlConnection.connectToServer();
-      if (!result.equals("")) {
-        connected = true;
-      }
+      // The id distinguishes the tree on the shared connection
+      gvsTreeId = xmlConnection.attach(gvsTreeId);
+      // The action must not reference the tree itself
+      XMLConnection connection = xmlConnection;
+      long id = gvsTreeId;
+      cleanable = ConnectionCleaner.getInstance().register(this,
+          () -> connection.detach(id));
     } else {
       logger.warn("Connection to Server is disabled by Property \"-DNoGVS\"!");
     }
@@ -154,7 +140,7 @@ public class GVSTreeWithCollection {
    * 
    * @param pGVSTreeNode
    */
-  public void add(GVSBinaryTreeNode pGVSTreeNode) {
+  public synchronized void add(GVSBinaryTreeNode pGVSTreeNode) {
     this.gvsTreeNodes.add(pGVSTreeNode);
     logger.debug("BinaryNode added");
   }
@@ -164,7 +150,7 @@ public class GVSTreeWithCollection {
    * 
    * @param pGVSTreeNode
    */
-  public void add(GVSDefaultTreeNode pGVSTreeNode) {
+  public synchronized void add(GVSDefaultTreeNode pGVSTreeNode) {
     this.gvsTreeNodes.add(pGVSTreeNode);
     logger.debug("DefaultNode added");
   }
@@ -204,18 +190,19 @@ public class GVSTreeWithCollection {
         .iterator();
     while (componentIterator.hasNext()) {
       Object tmp = componentIterator.next();
-      Class<?>[] interfaces = tmp.getClass().getInterfaces();
-      for (int count = 0; count < interfaces.length; count++) {
-        System.out.println(interfaces[count].toString());
-        if (interfaces[count] == GVSBinaryTreeNode.class) {
-          logger.debug("BinaryNode found");
-          this.add((GVSBinaryTreeNode) tmp);
-        } else if (interfaces[count] == GVSDefaultTreeNode.class) {
-          logger.debug("DefaultNode found");
-          this.add((GVSDefaultTreeNode) tmp);
-        }
+      switch (GVSComponentType.of(tmp)) {
+      case BINARY_NODE:
+        logger.debug("BinaryNode found");
+        this.add((GVSBinaryTreeNode) tmp);
+        break;
+      case DEFAULT_NODE:
+        logger.debug("DefaultNode found");
+        this.add((GVSDefaultTreeNode) tmp);
+        break;
+      default:
+        logger.warn("Unknown node ignored");
+        break;
       }
-
     }
     logger.debug("Finish add a Collection");
   }
@@ -225,7 +212,7 @@ public class GVSTreeWithCollection {
    * 
    * @param pGVSTreeNode
    */
-  public void remove(GVSDefaultTreeNode pGVSTreeNode) {
+  public synchronized void remove(GVSDefaultTreeNode pGVSTreeNode) {
     this.gvsTreeNodes.remove(pGVSTreeNode);
     logger.debug("remove DefaultNode");
   }
@@ -235,7 +222,7 @@ public class GVSTreeWithCollection {
    * 
    * @param pGVSTreeNode
    */
-  public void remove(GVSBinaryTreeNode pGVSTreeNode) {
+  public synchronized void remove(GVSBinaryTreeNode pGVSTreeNode) {
     this.gvsTreeNodes.remove(pGVSTreeNode);
     logger.debug("remove BinaryNode");
   }
@@ -274,179 +261,381 @@ public class GVSTreeWithCollection {
     Iterator<GVSTreeNode> componentIterator = pGVSTreeNodes.iterator();
     while (componentIterator.hasNext()) {
       Object tmp = componentIterator.next();
-      Class<?>[] interfaces = tmp.getClass().getInterfaces();
-      for (int count = 0; count < interfaces.length; count++) {
-        if (interfaces[count] == GVSBinaryTreeNode.class) {
-          logger.debug("BinaryNode found");
-          this.remove((GVSBinaryTreeNode) tmp);
-
-        } else if (interfaces[count] == GVSDefaultTreeNode.class) {
-          logger.debug("DefaultNode found");
-          this.remove((GVSDefaultTreeNode) tmp);
-        }
+      switch (GVSComponentType.of(tmp)) {
+      case BINARY_NODE:
+        logger.debug("BinaryNode found");
+        this.remove((GVSBinaryTreeNode) tmp);
+        break;
+      case DEFAULT_NODE:
+        logger.debug("DefaultNode found");
+        this.remove((GVSDefaultTreeNode) tmp);
+        break;
+      default:
+        logger.warn("Unknown node ignored");
+        break;
       }
     }
     logger.debug("Finish remove a Collection");
   }
 
   /**
-   * Build the Xml and send it. It examined whether the tree cycles contains. If
-   * the Client terminated, since this is not permitted
+   * Build the Xml and send it. It examined whether the tree cycles contains.
+   * Such a tree is not sent, since this is not permitted
+   * 
+   * @throws IllegalStateException
+   *           if a node is reached twice
    */
   public void display() {
+    if (!frameRateLimiter.tryAcquire()) {
+      logger.debug("Display skipped, frame rate limit reached");
+      return;
+    }
+    send();
+  }
 
-    if (checkForCycles()) {
-      System.exit(0);
+  /**
+   * Sends the tree. Called by display() and, for a skipped display, by the
+   * background thread of the frame rate limit.
+   */
+  private synchronized void send() {
+    checkForCycles();
+    if (connectToServer) {
+      logger.info("Call send");
+      xmlConnection.sendDocument(this::writeDocument);
     }
-    logger.info("Start building XML...");
-    document = DocumentHelper.createDocument();
-    Element docRoot = document.addElement(ROOT);
+  }
 
-    logger.debug("build Tree-Elements");
-    Element tree = docRoot.addElement(TREE);
-    tree.addAttribute(ATTRIBUTEID, String.valueOf(this.gvsTreeId));
-    Element treeLabel = tree.addElement(LABEL);
-    treeLabel.addText(this.gvsTreeName);
+  /**
+   * Build the Xml on the calling thread and send it to the server in the
+   * background. The caller does not wait for the server.
+   *
+   * @return completed with true, if the tree was sent. False, if the display
+   *         was skipped because of the frame rate limit
+   * @throws IllegalStateException
+   *           if a node is reached twice
+   */
+  public CompletableFuture<Boolean> displayAsync() {
+    if (!frameRateLimiter.tryAcquire()) {
+      logger.debug("Display skipped, frame rate limit reached");
+      return CompletableFuture.completedFuture(false);
+    }
+    synchronized (this) {
+      checkForCycles();
+      if (connectToServer) {
+        logger.info("Queue send");
+        return xmlConnection.sendDocumentAsync(this::writeDocument);
+      }
+    }
+    return CompletableFuture.completedFuture(false);
+  }
 
-    Element nodes = docRoot.addElement(NODES);
-    logger.debug("build Node-Elements");
-    Iterator<GVSTreeNode> nodeIterator = gvsTreeNodes.iterator();
-    while (nodeIterator.hasNext()) {
-      Object tmp = nodeIterator.next();
-      Class<?>[] interfaces = tmp.getClass().getInterfaces();
-      for (int count = 0; count < interfaces.length; count++) {
-        if (interfaces[count] == GVSBinaryTreeNode.class) {
-          GVSBinaryTreeNode node = (GVSBinaryTreeNode) tmp;
-          if (node != null) {
-            logger.debug("BinaryNode found");
-            buildBinaryNode(nodes, node);
-          } else {
-            logger.warn("BinaryNode null");
-          }
-          break;
-        } else if (interfaces[count] == GVSDefaultTreeNode.class) {
-          GVSDefaultTreeNode node = (GVSDefaultTreeNode) tmp;
-          if (node != null) {
-            buildDefaultNode(nodes, node);
-          } else {
-            System.err.println("Node null");
-          }
-          break;
-        }
+  /**
+   * Sets the queue size and the overflow policy of displayAsync()
+   *
+   * @param pCapacity
+   *          maximal number of queued displays
+   * @param pPolicy
+   *          behaviour, if the queue is full
+   */
+  public void setAsyncQueue(int pCapacity, OverflowPolicy pPolicy) {
+    xmlConnection.setAsyncQueue(pCapacity, pPolicy);
+  }
 
-      }
+  /**
+   * Limits the number of displays sent per second. Displays inside the
+   * interval are skipped, the latest state is sent at the end of the
+   * interval by the background thread "GVS-FrameRate", unless the next
+   * display or the disconnect sends it before. That thread traverses the
+   * nodes and calls getNodeLabel() and getStyle(). Like display(), it holds
+   * the lock of the tree meanwhile, so nodes changed in a block synchronized
+   * on the tree are not read halfway.
+   *
+   * @param pMaxFramesPerSecond
+   *          maximal number of displays per second. 0 disables the limit
+   */
+  public void setMaxFramesPerSecond(int pMaxFramesPerSecond) {
+    frameRateLimiter.setMaxFramesPerSecond(pMaxFramesPerSecond);
+  }
+
+  /**
+   * Enables the cache of the labels, styles and encoded nodes. A node is
+   * evaluated and encoded once, the result is reused for the following
+   * displays. Changes of a node, e.g. of its label, style or children, are
+   * only sent after the node is marked as dirty.
+   *
+   * @param pCached
+   *          true to cache the labels, styles and encoded nodes
+   */
+  public synchronized void setCachedEvaluation(boolean pCached) {
+    if (pCached && labelCache == null) {
+      labelCache = new GVSLabelCache();
+      labelCache.setParallel(parallelEvaluation);
+      fragmentCache = new GVSFragmentCache();
+    } else if (!pCached) {
+      labelCache = null;
+      fragmentCache = null;
     }
+  }
 
-    logger.info("Finish building XML...");
-    if (connectToServer) {
-      logger.info("Call send");
-      xmlConnection.sendFile(document);
+  /**
+   * Evaluates the labels and styles of new and dirty nodes in parallel, if
+   * the cache is enabled. getNodeLabel() and getStyle() have to be
+   * thread-safe then.
+   *
+   * @param pParallel
+   *          true to evaluate in parallel
+   */
+  public synchronized void setParallelEvaluation(boolean pParallel) {
+    this.parallelEvaluation = pParallel;
+    if (labelCache != null) {
+      labelCache.setParallel(pParallel);
     }
   }
 
   /**
-   * Disconnect from the Server
+   * Marks a node as changed. Its label and style are evaluated again with
+   * the next display.
+   *
+   * @param pNode
+   *          the changed node
+   */
+  public synchronized void markDirty(GVSTreeNode pNode) {
+    if (labelCache != null) {
+      labelCache.markDirty(pNode);
+      fragmentCache.markDirty(idRegistry.find(pNode));
+    }
+  }
+
+  /**
+   * Marks all nodes as changed
+   */
+  public synchronized void markAllDirty() {
+    if (labelCache != null) {
+      labelCache.markAllDirty();
+      fragmentCache.markAllDirty();
+    }
+  }
+
+  /**
+   * Disconnect from the Server. A display skipped by the frame rate limit is
+   * sent before.
    *
    */
   public void disconnect() {
     if (connectToServer) {
-      logger.info("Call disconnect");
-      xmlConnection.disconnectFromServer();
+      try {
+        if (frameRateLimiter.flush()) {
+          send();
+        }
+      } finally {
+        logger.info("Call disconnect");
+        cleanable.clean();
+      }
     }
   }
 
-  protected void finalize() throws Throwable {
-    this.disconnect();
-    super.finalize();
-
+  /**
+   * Disconnects from the server like disconnect(), so the tree can be used
+   * with try-with-resources. If a tree is not closed, its connection is
+   * released after it was garbage collected, without the skipped display.
+   */
+  public void close() {
+    disconnect();
   }
 
   // ****************************XML-BUILDER*********************************
 
-  private void buildDefaultNode(Element pParent, GVSDefaultTreeNode pNode) {
-    Element defaultNode = pParent.addElement(DEFAULTNODE);
-    defaultNode.addAttribute(ATTRIBUTEID, String.valueOf(pNode.hashCode()));
-    GVSStyle style = pNode.getStyle();
+  private void writeDocument(DocumentEncoder pWriter) throws IOException {
+    logger.info("Start building XML...");
+    if (labelCache != null) {
+      labelCache.evaluate(gvsTreeNodes, GVSTreeNode::getNodeLabel,
+          GVSTreeNode::getStyle);
+    }
+    pWriter.startElement(ROOT);
 
-    Element label = defaultNode.addElement(LABEL);
-    String theLabel = pNode.getNodeLabel();
+    logger.debug("build Tree-Elements");
+    pWriter.startElement(TREE);
+    pWriter.attribute(ATTRIBUTEID, this.gvsTreeId);
+    pWriter.element(LABEL, this.gvsTreeName);
+    pWriter.endElement();
+
+    useStyleTable = xmlConnection.hasStyleTable();
+    resolvedStyles = null;
+    if (useStyleTable) {
+      collectStyles();
+      styleTable.write(pWriter);
+    }
+    if (fragmentCache != null) {
+      fragmentCache.begin(pWriter, idRegistry.getLastId());
+    }
 
-    Element lineColor = defaultNode.addElement(LINECOLOR);
-    Element lineStyle = defaultNode.addElement(LINESTYLE);
+    pWriter.startElement(NODES);
+    logger.debug("build Node-Elements");
+    Iterator<GVSTreeNode> nodeIterator = gvsTreeNodes.iterator();
+    while (nodeIterator.hasNext()) {
+      GVSTreeNode tmp = nodeIterator.next();
+      if (fragmentCache != null && tmp != null) {
+        fragmentCache.write(pWriter, idRegistry.idOf(tmp), versionOf(tmp),
+            writer -> buildNodeElement(writer, tmp));
+      } else {
+        buildNodeElement(pWriter, tmp);
+      }
+    }
+    pWriter.endElement();
+
+    pWriter.endElement();
+    resolvedStyles = null;
+    idRegistry.sweep();
+    if (labelCache != null) {
+      labelCache.sweep();
+      fragmentCache.sweep();
+    }
+    logger.info("Finish building XML...");
+  }
 
-    Element lineThick = defaultNode.addElement(LINETHICKNESS);
-    Element fillColor = defaultNode.addElement(FILLCOLOR);
+  private void buildDefaultNode(DocumentEncoder pWriter,
+      GVSDefaultTreeNode pNode) throws IOException {
+    pWriter.startElement(DEFAULTNODE);
+    pWriter.attribute(ATTRIBUTEID, idRegistry.idOf(pNode));
+    GVSStyle style = styleOf(pNode);
+    if (useStyleTable) {
+      pWriter.attribute(STYLE, styleTable.indexOf(style));
+    }
 
+    String theLabel = labelOf(pNode);
     if (theLabel == null) {
       theLabel = "";
     }
-    label.addText(theLabel);
-
-    if (style != null) {
-
-      lineColor.addText(style.getLineColor().name());
-      lineStyle.addText(style.getLineStyle().name());
-      lineThick.addText(style.getLineThickness().name());
-      fillColor.addText(style.getFillColor().name());
-    } else {
-      lineColor.addText(STANDARD);
-      lineStyle.addText(STANDARD);
-      lineThick.addText(STANDARD);
-      fillColor.addText(STANDARD);
+    pWriter.element(LABEL, theLabel);
+    if (!useStyleTable) {
+      buildStyle(pWriter, style);
     }
     GVSDefaultTreeNode children[] = pNode.getGVSChildNodes();
     if (children != null) {
       for (int index = 0; index < children.length; index++) {
         GVSDefaultTreeNode childNode = children[index];
         if (childNode != null) {
-          Element child = defaultNode.addElement(CHILD);
-          child.addText(String.valueOf(childNode.hashCode()));
+          pWriter.element(CHILD, idRegistry.idOf(childNode));
         }
       }
     }
+    pWriter.endElement();
   }
 
-  private void buildBinaryNode(Element pParent, GVSBinaryTreeNode pNode) {
-    logger.info("CreateBinaryNode -->XML");
-    Element binaryNode = pParent.addElement(BINARYNODE);
-    binaryNode.addAttribute(ATTRIBUTEID, String.valueOf(pNode.hashCode()));
+  /**
+   * Evaluates the style of each node once and fills the style table with
+   * them. The nodes are written with the same styles, also if the style of a
+   * node is not stable.
+   */
+  private void collectStyles() {
+    styleTable.clear();
+    Map<GVSTreeNode, GVSStyle> styles = new IdentityHashMap<>();
+    for (GVSTreeNode node : gvsTreeNodes) {
+      if (node != null) {
+        GVSStyle style = styleOf(node);
+        styles.put(node, style);
+        styleTable.intern(style);
+      }
+    }
+    resolvedStyles = styles;
+  }
+
+  private boolean buildNodeElement(DocumentEncoder pWriter,
+      GVSTreeNode pNode) throws IOException {
+    switch (GVSComponentType.of(pNode)) {
+    case BINARY_NODE:
+      logger.debug("BinaryNode found");
+      buildBinaryNode(pWriter, (GVSBinaryTreeNode) pNode);
+      break;
+    case DEFAULT_NODE:
+      buildDefaultNode(pWriter, (GVSDefaultTreeNode) pNode);
+      break;
+    default:
+      logger.warn("Node null");
+      break;
+    }
+    return true;
+  }
+
+  /**
+   * Returns the version of a cached node. It depends on the style table and
+   * for binary nodes on the children, which are part of the collection.
+   */
+  private int versionOf(GVSTreeNode pNode) {
+    int version = -1;
+    if (useStyleTable) {
+      version = styleTable.indexOf(styleOf(pNode));
+    }
+    if (GVSComponentType.of(pNode) == GVSComponentType.BINARY_NODE) {
+      GVSBinaryTreeNode node = (GVSBinaryTreeNode) pNode;
+      version <<= 2;
+      if (gvsTreeNodes.contains(node.getGVSLeftChild())) {
+        version |= 1;
+      }
+      if (gvsTreeNodes.contains(node.getGVSRightChild())) {
+        version |= 2;
+      }
+    }
+    return version;
+  }
+
+  private String labelOf(GVSTreeNode pNode) {
+    if (labelCache == null) {
+      return pNode.getNodeLabel();
+    }
+    return labelCache.labelOf(pNode);
+  }
 
-    GVSStyle nodeStyle = pNode.getStyle();
+  private GVSStyle styleOf(GVSTreeNode pNode) {
+    if (resolvedStyles != null) {
+      return resolvedStyles.get(pNode);
+    }
+    if (labelCache == null) {
+      return pNode.getStyle();
+    }
+    return labelCache.styleOf(pNode);
+  }
 
-    Element label = binaryNode.addElement(LABEL);
-    String theLabel = pNode.getNodeLabel();
+  private void buildStyle(DocumentEncoder pWriter, GVSStyle pStyle)
+      throws IOException {
+    if (pStyle != null) {
+      pWriter.element(LINECOLOR, pStyle.getLineColor());
+      pWriter.element(LINESTYLE, pStyle.getLineStyle());
+      pWriter.element(LINETHICKNESS, pStyle.getLineThickness());
+      pWriter.element(FILLCOLOR, pStyle.getFillColor());
+    } else {
+      pWriter.element(LINECOLOR, STANDARD);
+      pWriter.element(LINESTYLE, STANDARD);
+      pWriter.element(LINETHICKNESS, STANDARD);
+      pWriter.element(FILLCOLOR, STANDARD);
+    }
+  }
 
-    Element lineColor = binaryNode.addElement(LINECOLOR);
-    Element lineStyle = binaryNode.addElement(LINESTYLE);
+  private void buildBinaryNode(DocumentEncoder pWriter,
+      GVSBinaryTreeNode pNode) throws IOException {
+    logger.info("CreateBinaryNode -->XML");
+    pWriter.startElement(BINARYNODE);
+    pWriter.attribute(ATTRIBUTEID, idRegistry.idOf(pNode));
 
-    Element lineThick = binaryNode.addElement(LINETHICKNESS);
-    Element fillColor = binaryNode.addElement(FILLCOLOR);
+    GVSStyle nodeStyle = styleOf(pNode);
+    if (useStyleTable) {
+      pWriter.attribute(STYLE, styleTable.indexOf(nodeStyle));
+    }
 
+    String theLabel = labelOf(pNode);
     if (theLabel == null) {
       theLabel = "";
     }
-    label.addText(theLabel);
-
-    if (nodeStyle != null) {
-
-      lineColor.addText(nodeStyle.getLineColor().name());
-      lineStyle.addText(nodeStyle.getLineStyle().name());
-      lineThick.addText(nodeStyle.getLineThickness().name());
-      fillColor.addText(nodeStyle.getFillColor().name());
-    } else {
-      logger.info("No Style. Standard will be set");
-      lineColor.addText(STANDARD);
-      lineStyle.addText(STANDARD);
-      lineThick.addText(STANDARD);
-      fillColor.addText(STANDARD);
+    pWriter.element(LABEL, theLabel);
+    if (!useStyleTable) {
+      buildStyle(pWriter, nodeStyle);
     }
 
     GVSBinaryTreeNode leftNode = pNode.getGVSLeftChild();
     GVSBinaryTreeNode rightNode = pNode.getGVSRightChild();
     if (leftNode != null) {
       if (this.gvsTreeNodes.contains(leftNode)) {
-        Element leftChild = binaryNode.addElement(LEFT_CHILD);
-        leftChild.addText(String.valueOf(leftNode.hashCode()));
+        pWriter.element(LEFT_CHILD, idRegistry.idOf(leftNode));
         logger.info("Leftchild found");
       } else {
         logger.warn("Leftchild " + leftNode.getNodeLabel()
@@ -455,44 +644,87 @@ public class GVSTreeWithCollection {
     }
     if (rightNode != null) {
       if (this.gvsTreeNodes.contains(rightNode)) {
-        Element rightChild = binaryNode.addElement(RIGHT_CHILD);
-        rightChild.addText(String.valueOf(rightNode.hashCode()));
+        pWriter.element(RIGHT_CHILD, idRegistry.idOf(rightNode));
         logger.info("Right child found");
       } else {
         logger.warn("Right child " + rightNode.getNodeLabel()
             + " not contained in collection");
       }
     }
+    pWriter.endElement();
     logger.info("Finish Create BinaryNode -->XML");
   }
 
-  private boolean checkForCycles() {
+  /**
+   * Fails if a node is reached twice, i.e. the tree contains a cycle or a node
+   * with more than one parent.
+   */
+  private void checkForCycles() {
     logger.info("Check for Cycles");
-    boolean hasCycle = false;
-    Vector<GVSTreeNode> toCheck = new Vector<GVSTreeNode>(gvsTreeNodes);
-    Iterator<GVSTreeNode> checkerIt = toCheck.iterator();
-    while (checkerIt.hasNext()) {
-      int counter = 0;
-      GVSTreeNode actualNode = checkerIt.next();
-      Iterator<GVSTreeNode> checkToOrigIt = gvsTreeNodes.iterator();
-      while (checkToOrigIt.hasNext()) {
-        GVSTreeNode nodeToCheck = checkToOrigIt.next();
-        GVSTreeNode[] children = children(nodeToCheck);
-        if (children != null) {
-          for (int i = 0; i < children.length; i++) {
-            if (children[i] == actualNode) {
-              counter++;
-            }
+    GVSTreeNode nodeReachedTwice = findNodeReachedTwice();
+    if (nodeReachedTwice != null) {
+      String message = "Node '" + nodeReachedTwice.getNodeLabel() + "' (Id "
+          + idRegistry.idOf(nodeReachedTwice) + ") is reached twice. "
+          + "The tree contains a cycle or a shared node";
+      logger.error(message);
+      throw new IllegalStateException(message);
+    }
+  }
+
+  /**
+   * Marks the parent of each node. A node with a second parent is reached
+   * twice. Nodes, which can not be reached from a node without parent, are
+   * part of a cycle.
+   * 
+   * @return a node reached twice or null
+   */
+  private GVSTreeNode findNodeReachedTwice() {
+    Map<GVSTreeNode, Boolean> hasParent = new IdentityHashMap<>();
+    for (GVSTreeNode node : gvsTreeNodes) {
+      if (node != null) {
+        hasParent.put(node, Boolean.FALSE);
+      }
+    }
+    for (GVSTreeNode node : hasParent.keySet()) {
+      GVSTreeNode[] children = children(node);
+      if (children != null) {
+        for (int i = 0; i < children.length; i++) {
+          Boolean parent = hasParent.get(children[i]);
+          if (parent == Boolean.TRUE) {
+            return children[i];
+          } else if (parent != null) {
+            hasParent.put(children[i], Boolean.TRUE);
           }
         }
       }
-      if (counter >= 2) {
-        hasCycle = true;
-        logger.error("CYCLE in the tree!!!! System Exit");
-        break;
+    }
+
+    Set<GVSTreeNode> reached = Collections
+        .newSetFromMap(new IdentityHashMap<GVSTreeNode, Boolean>());
+    Deque<GVSTreeNode> toVisit = new ArrayDeque<>();
+    for (Map.Entry<GVSTreeNode, Boolean> entry : hasParent.entrySet()) {
+      if (!entry.getValue()) {
+        toVisit.push(entry.getKey());
+      }
+    }
+    while (!toVisit.isEmpty()) {
+      GVSTreeNode node = toVisit.pop();
+      reached.add(node);
+      GVSTreeNode[] children = children(node);
+      if (children != null) {
+        for (int i = 0; i < children.length; i++) {
+          if (children[i] != null && hasParent.containsKey(children[i])) {
+            toVisit.push(children[i]);
+          }
+        }
       }
     }
-    return hasCycle;
+    for (GVSTreeNode node : hasParent.keySet()) {
+      if (!reached.contains(node)) {
+        return node;
+      }
+    }
+    return null;
   }
 
   private GVSTreeNode[] children(GVSTreeNode nodeToCheck) {
@@ -506,7 +738,13 @@ public class GVSTreeWithCollection {
     }
   }
 
+  /**
+   * Returns whether the tree is connected. It does not connect, the
+   * connection is established with the first display.
+   *
+   * @return true, if the server accepted the connection
+   */
   public boolean isConnected() {
-    return connected;
+    return connectToServer && xmlConnection.isConnected();
   }
 }
@@ -1,23 +1,36 @@
-
 package gvs.business.tree;
 
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.IdentityHashMap;
 import java.util.Iterator;
-import java.util.Vector;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
 
-import org.dom4j.Document;
-import org.dom4j.DocumentException;
-import org.dom4j.DocumentHelper;
-import org.dom4j.Element;
-import org.dom4j.io.SAXReader;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import gvs.access.ConnectionCleaner;
+import gvs.access.DocumentEncoder;
+import gvs.access.FrameRateLimiter;
+import gvs.access.OverflowPolicy;
 import gvs.access.XMLConnection;
+import gvs.access.XMLConnectionFactory;
+import gvs.business.GVSComponentType;
+import gvs.business.GVSFragmentCache;
+import gvs.business.GVSIdRegistry;
+import gvs.business.GVSLabelCache;
 import gvs.business.styles.GVSStyle;
+import gvs.business.styles.GVSStyleTable;
 
 /**
- * This class takes up only a rootnode. For transfer, the class builds the tree
- * recursivly and adds the nodes to a collection. Null values are translated to
+ * This class takes up only a rootnode. For transfer, the class traverses the
+ * tree and adds the nodes to a collection. Null values are translated to
  * standard or empty strings. It is to be made certain that the tree does not
  * contain cycles. The connection information has to be set over Properties:
  * 
@@ -29,23 +42,30 @@ import gvs.business.styles.GVSStyle;
  * @author mkoller
  * 
  */
-public class GVSTreeWithRoot {
+public class GVSTreeWithRoot implements AutoCloseable {
 
   // Data
-  private Document document = null;
   private XMLConnection xmlConnection = null;
-  private String host = null;
-  private int port = 0;
+  private final FrameRateLimiter frameRateLimiter = new FrameRateLimiter(
+      this::send);
+
+  // Styles of the current document, if the server accepts a style table
+  private final GVSStyleTable styleTable = new GVSStyleTable();
+  private boolean useStyleTable = false;
+  // Styles of the nodes, evaluated once per display for the style table
+  private Map<GVSTreeNode, GVSStyle> resolvedStyles = null;
+
+  // Ids of the nodes, stable over all displays
+  private final GVSIdRegistry idRegistry = new GVSIdRegistry();
+
+  // Labels and styles of the last displays, if they are cached
+  private GVSLabelCache labelCache = null;
+  private GVSFragmentCache fragmentCache = null;
+  private boolean parallelEvaluation = false;
   private long gvsTreeId = 0;
   private String gvsTreeName = "";
   private GVSTreeNode gvsTreeRoot = null;
 
-  // Config
-  private final String GVSPORTFILE = "GVSPortFile";
-  private final String GVSHOST = "GVSHost";
-  private final String GVSPORT = "GVSPort";
-  private final String NO_GVS = "NoGVS";
-
   // General
   private final String ROOT = "GVS";
   private final String ATTRIBUTEID = "Id";
@@ -55,6 +75,7 @@ public class GVSTreeWithRoot {
   private final String LINESTYLE = "Linestyle";
   private final String LINETHICKNESS = "Linethickness";
   private final String STANDARD = "standard";
+  private final String STYLE = "Style";
 
   // Tree
   private final String TREE = "Tree";
@@ -69,11 +90,13 @@ public class GVSTreeWithRoot {
   private static final Logger logger = LoggerFactory
       .getLogger(GVSTreeWithRoot.class);
 
-  private Vector<GVSTreeNode> gvsTreeNodes = null;
+  private List<GVSTreeNode> gvsTreeNodes = null;
+  private Set<GVSTreeNode> visitedNodes = null;
+  private GVSTreeNode nodeReachedTwice = null;
 
   // If Connection to Server shall be used:
   private boolean connectToServer = false;
-  private boolean connected = false;
+  private ConnectionCleaner.Cleanable cleanable = null;
 
   /**
    * Init tree and connection
@@ -81,65 +104,31 @@ public class GVSTreeWithRoot {
    * @param pGVSTreeName
    */
   public GVSTreeWithRoot(String pGVSTreeName) {
+    this(pGVSTreeName, XMLConnectionFactory.getInstance().createConnection(),
+        XMLConnectionFactory.getInstance().isEnabled());
+  }
+
+  /**
+   * Creates the tree on the given connection, e.g. to a test server
+   *
+   * @param pConnect
+   *          false, if nothing should be sent
+   */
+  GVSTreeWithRoot(String pGVSTreeName, XMLConnection pConnection,
+      boolean pConnect) {
     this.gvsTreeId = System.currentTimeMillis();
     this.gvsTreeName = pGVSTreeName;
 
-    String propPortfile = System.getProperty(GVSPORTFILE);
-    String propHost = System.getProperty(GVSHOST);
-    String propPort = System.getProperty(GVSPORT);
-    connectToServer = System.getProperty(NO_GVS) != null ? false : true;
-
-    // Set Portfilepath from VM
-    if (propPortfile != null) {
-      SAXReader reader = new SAXReader();
-      logger.info("Load Communication from Portfile");
-      try {
-        // Read Portfile
-        Document document = reader.read(propPortfile);
-        Element docRoot = document.getRootElement();
-        Element eHost = docRoot.element("Host");
-        Element ePort = docRoot.element("Port");
-        if (eHost != null && ePort != null) {
-          host = eHost.getText();
-          port = Integer.parseInt(ePort.getText());
-        } else {
-          logger.error("Error while loading Portfile. System exit");
-          System.exit(0);
-        }
-
-      } catch (DocumentException e) {
-        logger.error("Error while loading Portfile. System exit");
-        System.exit(0);
-      }
-    }
-
-    // Set Host and Port from VM
-    else if (propHost != null && propPort != null) {
-      logger.info("Load Communication from Host and Port");
-      try {
-        this.host = propHost;
-        this.port = Integer.parseInt(propPort);
-      } catch (Exception ex) {
-        logger.error("Error Port or Host. System exit");
-        System.exit(0);
-      }
-
-    }
-
-    // Set Defaultvalues
-    else {
-      logger.info("Set default for host and Port");
-      this.host = "127.0.0.1";
-      this.port = 3000;
-      logger.info("Host: " + host + " Port: " + port);
-    }
-
-    xmlConnection = new XMLConnection(host, port);
+    connectToServer = pConnect;
+    xmlConnection = pConnection;
     if (connectToServer) {
-      String result = xmlConnection.connectToServer();
-      if (!result.equals("")) {
-        connected = true;
-      }
+      // The id distinguishes the tree on the shared connection
+      gvsTreeId = xmlConnection.attach(gvsTreeId);
+      // The action must not reference the tree itself
+      XMLConnection connection = xmlConnection;
+      long id = gvsTreeId;
+      cleanable = ConnectionCleaner.getInstance().register(this,
+          () -> connection.detach(id));
     } else {
       logger.warn("Connection to Server is disabled by Property \"-DNoGVS\"!");
     }
@@ -151,7 +140,7 @@ public class GVSTreeWithRoot {
    * 
    * @param pGVSRootTreeNode
    */
-  public void setRoot(GVSTreeNode pGVSRootTreeNode) {
+  public synchronized void setRoot(GVSTreeNode pGVSRootTreeNode) {
     logger.debug("Set Rootnode");
     this.gvsTreeRoot = pGVSRootTreeNode;
   }
@@ -160,240 +149,441 @@ public class GVSTreeWithRoot {
    * Build the tree and check for cycles. If the tree is ok, it will be send to
    * the server
    *
+   * @throws IllegalStateException
+   *           if a node is reached twice
    */
   public void display() {
+    if (!frameRateLimiter.tryAcquire()) {
+      logger.debug("Display skipped, frame rate limit reached");
+      return;
+    }
+    send();
+  }
 
-    logger.info("Start building XML...");
-    document = DocumentHelper.createDocument();
-    Element docRoot = document.addElement(ROOT);
+  /**
+   * Sends the tree. Called by display() and, for a skipped display, by the
+   * background thread of the frame rate limit.
+   */
+  private synchronized void send() {
+    collectNodes();
+    if (connectToServer) {
+      logger.info("Call send");
+      xmlConnection.sendDocument(this::writeDocument);
+    }
+  }
 
-    logger.debug("build Tree-Elements");
-    Element tree = docRoot.addElement(TREE);
-    tree.addAttribute(ATTRIBUTEID, String.valueOf(this.gvsTreeId));
-    Element treeLabel = tree.addElement(LABEL);
-    treeLabel.addText(this.gvsTreeName);
+  /**
+   * Build the Xml on the calling thread and send it to the server in the
+   * background. The caller does not wait for the server.
+   *
+   * @return completed with true, if the tree was sent. False, if the display
+   *         was skipped because of the frame rate limit
+   * @throws IllegalStateException
+   *           if a node is reached twice
+   */
+  public CompletableFuture<Boolean> displayAsync() {
+    if (!frameRateLimiter.tryAcquire()) {
+      logger.debug("Display skipped, frame rate limit reached");
+      return CompletableFuture.completedFuture(false);
+    }
+    synchronized (this) {
+      collectNodes();
+      if (connectToServer) {
+        logger.info("Queue send");
+        return xmlConnection.sendDocumentAsync(this::writeDocument);
+      }
+    }
+    return CompletableFuture.completedFuture(false);
+  }
 
-    if (this.gvsTreeRoot != null) {
-      logger.debug("build Node-Elements");
-      Element treeRoot = tree.addElement(TREEROOTID);
-      treeRoot.addText(String.valueOf(this.gvsTreeRoot.hashCode()));
+  /**
+   * Sets the queue size and the overflow policy of displayAsync()
+   *
+   * @param pCapacity
+   *          maximal number of queued displays
+   * @param pPolicy
+   *          behaviour, if the queue is full
+   */
+  public void setAsyncQueue(int pCapacity, OverflowPolicy pPolicy) {
+    xmlConnection.setAsyncQueue(pCapacity, pPolicy);
+  }
+
+  /**
+   * Limits the number of displays sent per second. Displays inside the
+   * interval are skipped, the latest state is sent at the end of the
+   * interval by the background thread "GVS-FrameRate", unless the next
+   * display or the disconnect sends it before. That thread traverses the
+   * nodes and calls getNodeLabel() and getStyle(). Like display(), it holds
+   * the lock of the tree meanwhile, so nodes changed in a block synchronized
+   * on the tree are not read halfway.
+   *
+   * @param pMaxFramesPerSecond
+   *          maximal number of displays per second. 0 disables the limit
+   */
+  public void setMaxFramesPerSecond(int pMaxFramesPerSecond) {
+    frameRateLimiter.setMaxFramesPerSecond(pMaxFramesPerSecond);
+  }
+
+  /**
+   * Enables the cache of the labels, styles and encoded nodes. A node is
+   * evaluated and encoded once, the result is reused for the following
+   * displays. Changes of a node, e.g. of its label, style or children, are
+   * only sent after the node is marked as dirty.
+   *
+   * @param pCached
+   *          true to cache the labels, styles and encoded nodes
+   */
+  public synchronized void setCachedEvaluation(boolean pCached) {
+    if (pCached && labelCache == null) {
+      labelCache = new GVSLabelCache();
+      labelCache.setParallel(parallelEvaluation);
+      fragmentCache = new GVSFragmentCache();
+    } else if (!pCached) {
+      labelCache = null;
+      fragmentCache = null;
     }
-    Element nodes = docRoot.addElement(NODES);
+  }
 
-    this.gvsTreeNodes = new Vector<GVSTreeNode>();
-    if (this.gvsTreeRoot != null) {
-      buildNode(nodes, this.gvsTreeRoot);
-      if (checkForCycles()) {
-        System.exit(0);
-      }
+  /**
+   * Evaluates the labels and styles of new and dirty nodes in parallel, if
+   * the cache is enabled. getNodeLabel() and getStyle() have to be
+   * thread-safe then.
+   *
+   * @param pParallel
+   *          true to evaluate in parallel
+   */
+  public synchronized void setParallelEvaluation(boolean pParallel) {
+    this.parallelEvaluation = pParallel;
+    if (labelCache != null) {
+      labelCache.setParallel(pParallel);
     }
-    logger.info("Finish building XML");
-    if (connectToServer) {
-      logger.info("Call send");
-      xmlConnection.sendFile(document);
+  }
+
+  /**
+   * Marks a node as changed. Its label and style are evaluated again with
+   * the next display.
+   *
+   * @param pNode
+   *          the changed node
+   */
+  public synchronized void markDirty(GVSTreeNode pNode) {
+    if (labelCache != null) {
+      labelCache.markDirty(pNode);
+      fragmentCache.markDirty(idRegistry.find(pNode));
     }
   }
 
   /**
-   * Disconnect from the server
+   * Marks all nodes as changed
+   */
+  public synchronized void markAllDirty() {
+    if (labelCache != null) {
+      labelCache.markAllDirty();
+      fragmentCache.markAllDirty();
+    }
+  }
+
+  private void collectNodes() {
+    logger.info("Start collecting nodes...");
+    this.gvsTreeNodes = new ArrayList<GVSTreeNode>();
+    this.visitedNodes = Collections
+        .newSetFromMap(new IdentityHashMap<GVSTreeNode, Boolean>());
+    this.nodeReachedTwice = null;
+    if (this.gvsTreeRoot != null) {
+      buildNode(this.gvsTreeRoot);
+      checkForCycles();
+    }
+    logger.info("Finish collecting nodes");
+  }
+
+  /**
+   * Disconnect from the server. A display skipped by the frame rate limit is
+   * sent before.
    *
    */
   public void disconnect() {
     if (connectToServer) {
-      logger.info("Call disconnect");
-      xmlConnection.disconnectFromServer();
+      try {
+        if (frameRateLimiter.flush()) {
+          send();
+        }
+      } finally {
+        logger.info("Call disconnect");
+        cleanable.clean();
+      }
     }
   }
 
-  protected void finalize() throws Throwable {
-    this.disconnect();
-    super.finalize();
+  /**
+   * Disconnects from the server like disconnect(), so the tree can be used
+   * with try-with-resources. If a tree is not closed, its connection is
+   * released after it was garbage collected, without the skipped display.
+   */
+  public void close() {
+    disconnect();
   }
 
   // ***********************BUILDERS**********************************
-  private void buildNode(Element pParent, GVSTreeNode pNode) {
-    logger.debug("build Node");
-    Class<?>[] interfaces = pNode.getClass().getInterfaces();
-    for (int count = 0; count < interfaces.length; count++) {
-      if (interfaces[count] == GVSBinaryTreeNode.class) {
+  /**
+   * Collects the nodes in preorder. The tree is traversed with an explicit
+   * stack, so the depth of the tree is not limited by the call stack.
+   */
+  private void buildNode(GVSTreeNode pRoot) {
+    Deque<GVSTreeNode> toVisit = new ArrayDeque<>();
+    toVisit.push(pRoot);
+    while (!toVisit.isEmpty()) {
+      GVSTreeNode node = toVisit.pop();
+      logger.debug("build Node");
+      if (!visitedNodes.add(node)) {
+        nodeReachedTwice = node;
+        return;
+      }
+      switch (GVSComponentType.of(node)) {
+      case BINARY_NODE:
         logger.debug("BinaryNode found");
-        GVSBinaryTreeNode theNode = (GVSBinaryTreeNode) pNode;
-        if (theNode != null) {
-          gvsTreeNodes.add(pNode);
-          buildBinaryNode(pParent, theNode);
-          GVSBinaryTreeNode tmpNode = theNode.getGVSLeftChild();
-          if (tmpNode != null) {
-            buildNode(pParent, tmpNode);
-          } else {
-            logger.debug("LeftChild null");
-          }
-          tmpNode = ((GVSBinaryTreeNode) pNode).getGVSRightChild();
-          if (tmpNode != null) {
-            buildNode(pParent, tmpNode);
-          } else {
-            logger.debug("RigthChild null");
-          }
+        GVSBinaryTreeNode binaryNode = (GVSBinaryTreeNode) node;
+        gvsTreeNodes.add(node);
+        GVSBinaryTreeNode tmpNode = binaryNode.getGVSRightChild();
+        if (tmpNode != null) {
+          toVisit.push(tmpNode);
+        } else {
+          logger.debug("RigthChild null");
+        }
+        tmpNode = binaryNode.getGVSLeftChild();
+        if (tmpNode != null) {
+          toVisit.push(tmpNode);
         } else {
-          logger.warn("BinaryNode null");
+          logger.debug("LeftChild null");
         }
         break;
-      } else if (interfaces[count] == GVSDefaultTreeNode.class) {
-        GVSDefaultTreeNode theNode = (GVSDefaultTreeNode) pNode;
-        if (theNode != null) {
-          gvsTreeNodes.add(pNode);
-          buildDefaultNode(pParent, theNode);
-          GVSDefaultTreeNode children[] = theNode.getGVSChildNodes();
-          if (children != null) {
-            for (int index = 0; index < children.length; index++) {
-              if (children[index] != null) {
-                buildNode(pParent, children[index]);
-              }
+      case DEFAULT_NODE:
+        GVSDefaultTreeNode defaultNode = (GVSDefaultTreeNode) node;
+        gvsTreeNodes.add(node);
+        GVSDefaultTreeNode children[] = defaultNode.getGVSChildNodes();
+        if (children != null) {
+          for (int index = children.length - 1; index >= 0; index--) {
+            if (children[index] != null) {
+              toVisit.push(children[index]);
             }
           }
-          break;
         }
+        break;
+      default:
+        logger.warn("Unknown node ignored");
+        break;
       }
-
     }
   }
 
-  private void buildDefaultNode(Element pParent, GVSDefaultTreeNode pNode) {
-    Element defaultNode = pParent.addElement(DEFAULTNODE);
-    defaultNode.addAttribute(ATTRIBUTEID, String.valueOf(pNode.hashCode()));
-    GVSStyle style = pNode.getStyle();
+  private void writeDocument(DocumentEncoder pWriter) throws IOException {
+    logger.info("Start building XML...");
+    if (labelCache != null) {
+      labelCache.evaluate(gvsTreeNodes, GVSTreeNode::getNodeLabel,
+          GVSTreeNode::getStyle);
+    }
+    pWriter.startElement(ROOT);
 
-    Element label = defaultNode.addElement(LABEL);
-    String theLabel = pNode.getNodeLabel();
+    logger.debug("build Tree-Elements");
+    pWriter.startElement(TREE);
+    pWriter.attribute(ATTRIBUTEID, this.gvsTreeId);
+    pWriter.element(LABEL, this.gvsTreeName);
+    if (this.gvsTreeRoot != null) {
+      logger.debug("build Node-Elements");
+      pWriter.element(TREEROOTID, idRegistry.idOf(this.gvsTreeRoot));
+    }
+    pWriter.endElement();
 
-    Element lineColor = defaultNode.addElement(LINECOLOR);
-    Element lineStyle = defaultNode.addElement(LINESTYLE);
+    useStyleTable = xmlConnection.hasStyleTable();
+    resolvedStyles = null;
+    if (useStyleTable) {
+      collectStyles();
+      styleTable.write(pWriter);
+    }
+    if (fragmentCache != null) {
+      fragmentCache.begin(pWriter, idRegistry.getLastId());
+    }
+
+    pWriter.startElement(NODES);
+    Iterator<GVSTreeNode> nodeIt = gvsTreeNodes.iterator();
+    while (nodeIt.hasNext()) {
+      GVSTreeNode node = nodeIt.next();
+      if (fragmentCache != null) {
+        fragmentCache.write(pWriter, idRegistry.idOf(node), versionOf(node),
+            writer -> buildNodeElement(writer, node));
+      } else {
+        buildNodeElement(pWriter, node);
+      }
+    }
+    pWriter.endElement();
+
+    pWriter.endElement();
+    resolvedStyles = null;
+    idRegistry.sweep();
+    if (labelCache != null) {
+      labelCache.sweep();
+      fragmentCache.sweep();
+    }
+    logger.info("Finish building XML");
+  }
 
-    Element lineThick = defaultNode.addElement(LINETHICKNESS);
-    Element fillColor = defaultNode.addElement(FILLCOLOR);
+  private void buildDefaultNode(DocumentEncoder pWriter,
+      GVSDefaultTreeNode pNode) throws IOException {
+    pWriter.startElement(DEFAULTNODE);
+    pWriter.attribute(ATTRIBUTEID, idRegistry.idOf(pNode));
+    GVSStyle style = styleOf(pNode);
+    if (useStyleTable) {
+      pWriter.attribute(STYLE, styleTable.indexOf(style));
+    }
 
+    String theLabel = labelOf(pNode);
     if (theLabel == null) {
       theLabel = "";
     }
-    label.addText(theLabel);
-
-    if (style != null) {
-
-      lineColor.addText(style.getLineColor().name());
-      lineStyle.addText(style.getLineStyle().name());
-      lineThick.addText(style.getLineThickness().name());
-      fillColor.addText(style.getFillColor().name());
-    } else {
-      lineColor.addText(STANDARD);
-      lineStyle.addText(STANDARD);
-      lineThick.addText(STANDARD);
-      fillColor.addText(STANDARD);
+    pWriter.element(LABEL, theLabel);
+    if (!useStyleTable) {
+      buildStyle(pWriter, style);
     }
     GVSDefaultTreeNode children[] = pNode.getGVSChildNodes();
     if (children != null) {
       for (int index = 0; index < children.length; index++) {
         GVSDefaultTreeNode childNode = children[index];
         if (childNode != null) {
-          Element child = defaultNode.addElement(CHILD);
-          child.addText(String.valueOf(childNode.hashCode()));
+          pWriter.element(CHILD, idRegistry.idOf(childNode));
         }
       }
     }
+    pWriter.endElement();
   }
 
-  private void buildBinaryNode(Element pParent, GVSBinaryTreeNode pNode) {
-    logger.info("CreateBinaryNode -->XML");
-    Element binaryNode = pParent.addElement(BINARYNODE);
-    binaryNode.addAttribute(ATTRIBUTEID, String.valueOf(pNode.hashCode()));
+  /**
+   * Evaluates the style of each node once and fills the style table with
+   * them. The nodes are written with the same styles, also if the style of a
+   * node is not stable.
+   */
+  private void collectStyles() {
+    styleTable.clear();
+    Map<GVSTreeNode, GVSStyle> styles = new IdentityHashMap<>();
+    for (GVSTreeNode node : gvsTreeNodes) {
+      if (node != null) {
+        GVSStyle style = styleOf(node);
+        styles.put(node, style);
+        styleTable.intern(style);
+      }
+    }
+    resolvedStyles = styles;
+  }
 
-    GVSStyle nodeStyle = pNode.getStyle();
+  private boolean buildNodeElement(DocumentEncoder pWriter,
+      GVSTreeNode pNode) throws IOException {
+    if (GVSComponentType.of(pNode) == GVSComponentType.BINARY_NODE) {
+      buildBinaryNode(pWriter, (GVSBinaryTreeNode) pNode);
+    } else {
+      buildDefaultNode(pWriter, (GVSDefaultTreeNode) pNode);
+    }
+    return true;
+  }
 
-    Element label = binaryNode.addElement(LABEL);
-    String theLabel = pNode.getNodeLabel();
+  /**
+   * @return version of a cached node, which depends on the style table
+   */
+  private int versionOf(GVSTreeNode pNode) {
+    if (useStyleTable) {
+      return styleTable.indexOf(styleOf(pNode));
+    }
+    return -1;
+  }
 
-    Element lineColor = binaryNode.addElement(LINECOLOR);
-    Element lineStyle = binaryNode.addElement(LINESTYLE);
+  private String labelOf(GVSTreeNode pNode) {
+    if (labelCache == null) {
+      return pNode.getNodeLabel();
+    }
+    return labelCache.labelOf(pNode);
+  }
 
-    Element lineThick = binaryNode.addElement(LINETHICKNESS);
-    Element fillColor = binaryNode.addElement(FILLCOLOR);
+  private GVSStyle styleOf(GVSTreeNode pNode) {
+    if (resolvedStyles != null) {
+      return resolvedStyles.get(pNode);
+    }
+    if (labelCache == null) {
+      return pNode.getStyle();
+    }
+    return labelCache.styleOf(pNode);
+  }
 
-    if (theLabel == null) {
-      theLabel = "";
+  private void buildStyle(DocumentEncoder pWriter, GVSStyle pStyle)
+      throws IOException {
+    if (pStyle != null) {
+      pWriter.element(LINECOLOR, pStyle.getLineColor());
+      pWriter.element(LINESTYLE, pStyle.getLineStyle());
+      pWriter.element(LINETHICKNESS, pStyle.getLineThickness());
+      pWriter.element(FILLCOLOR, pStyle.getFillColor());
+    } else {
+      pWriter.element(LINECOLOR, STANDARD);
+      pWriter.element(LINESTYLE, STANDARD);
+      pWriter.element(LINETHICKNESS, STANDARD);
+      pWriter.element(FILLCOLOR, STANDARD);
     }
-    label.addText(theLabel);
+  }
 
-    if (nodeStyle != null) {
+  private void buildBinaryNode(DocumentEncoder pWriter,
+      GVSBinaryTreeNode pNode) throws IOException {
+    logger.info("CreateBinaryNode -->XML");
+    pWriter.startElement(BINARYNODE);
+    pWriter.attribute(ATTRIBUTEID, idRegistry.idOf(pNode));
 
-      lineColor.addText(nodeStyle.getLineColor().name());
-      lineStyle.addText(nodeStyle.getLineStyle().name());
-      lineThick.addText(nodeStyle.getLineThickness().name());
-      fillColor.addText(nodeStyle.getFillColor().name());
-    } else {
-      logger.info("No Tyo. Standard will be set");
-      lineColor.addText(STANDARD);
-      lineStyle.addText(STANDARD);
-      lineThick.addText(STANDARD);
-      fillColor.addText(STANDARD);
+    GVSStyle nodeStyle = styleOf(pNode);
+    if (useStyleTable) {
+      pWriter.attribute(STYLE, styleTable.indexOf(nodeStyle));
+    }
+
+    String theLabel = labelOf(pNode);
+    if (theLabel == null) {
+      theLabel = "";
+    }
+    pWriter.element(LABEL, theLabel);
+    if (!useStyleTable) {
+      buildStyle(pWriter, nodeStyle);
     }
 
     GVSBinaryTreeNode leftNode = pNode.getGVSLeftChild();
     GVSBinaryTreeNode rigthNode = pNode.getGVSRightChild();
     if (leftNode != null) {
-      Element leftChild = binaryNode.addElement(LEFT_CHILD);
-      leftChild.addText(String.valueOf(leftNode.hashCode()));
+      pWriter.element(LEFT_CHILD, idRegistry.idOf(leftNode));
     } else {
       logger.debug("Leftchild null");
     }
     if (rigthNode != null) {
-      Element rigthChild = binaryNode.addElement(RIGHT_CHILD);
-      rigthChild.addText(String.valueOf(rigthNode.hashCode()));
+      pWriter.element(RIGHT_CHILD, idRegistry.idOf(rigthNode));
     } else {
       logger.debug("Rigthchild null");
     }
+    pWriter.endElement();
     logger.info("Finish Create BinaryNode -->XML");
   }
 
-  private boolean checkForCycles() {
+  /**
+   * Fails if a node was reached twice while building the tree, i.e. the tree
+   * contains a cycle or a node with more than one parent.
+   */
+  private void checkForCycles() {
     logger.info("Check for Cycles");
-    boolean hasCycle = false;
-    Vector<GVSTreeNode> toCheck = new Vector<GVSTreeNode>(gvsTreeNodes);
-    Iterator<GVSTreeNode> checkerIt = toCheck.iterator();
-    while (checkerIt.hasNext()) {
-      int counter = 0;
-      GVSTreeNode actualNode = checkerIt.next();
-      Iterator<GVSTreeNode> checkToOrigIt = gvsTreeNodes.iterator();
-      while (checkToOrigIt.hasNext()) {
-        GVSTreeNode nodeToCheck = checkToOrigIt.next();
-        GVSTreeNode[] children = children(nodeToCheck);
-        if (children != null) {
-          for (int i = 0; i < children.length; i++) {
-            if (children[i] == actualNode) {
-              counter++;
-            }
-          }
-        }
-      }
-      if (counter >= 2) {
-        hasCycle = true;
-        logger.error("CYCLE in the tree!!!! System Exit");
-        break;
-      }
+    if (nodeReachedTwice != null) {
+      String message = "Node '" + nodeReachedTwice.getNodeLabel() + "' (Id "
+          + idRegistry.idOf(nodeReachedTwice) + ") is reached twice. "
+          + "The tree contains a cycle or a shared node";
+      logger.error(message);
+      throw new IllegalStateException(message);
     }
-    return hasCycle;
   }
 
+  /**
+   * Returns whether the tree is connected. It does not connect, the
+   * connection is established with the first display.
+   *
+   * @return true, if the server accepted the connection
+   */
   public boolean isConnected() {
-    return connected;
-  }
-
-  private GVSTreeNode[] children(GVSTreeNode nodeToCheck) {
-    if (nodeToCheck instanceof GVSBinaryTreeNode) {
-      GVSBinaryTreeNode node = (GVSBinaryTreeNode) nodeToCheck;
-      return new GVSTreeNode[] { node.getGVSLeftChild(),
-          node.getGVSRightChild() };
-    } else {
-      GVSDefaultTreeNode node = (GVSDefaultTreeNode) nodeToCheck;
-      return node.getGVSChildNodes();
-    }
+    return connectToServer && xmlConnection.isConnected();
   }
 
 }
@@ -0,0 +1,128 @@
+package gvs.access;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+
+import gvs.business.styles.GVSColor;
+import gvs.business.styles.GVSIcon;
+import gvs.business.styles.GVSLineStyle;
+import gvs.business.styles.GVSLineThickness;
+
+/**
+ * Decodes a binary document and replays it into another encoder. Used to
+ * compare the binary encoding with the XML encoding.
+ */
+class BinaryDocumentDecoder {
+
+  private static final Map<String, Enum<?>[]> CONSTANTS = new HashMap<>();
+
+  static {
+    CONSTANTS.put("Linecolor", GVSColor.values());
+    CONSTANTS.put("Fillcolor", GVSColor.values());
+    CONSTANTS.put("Linestyle", GVSLineStyle.values());
+    CONSTANTS.put("Linethickness", GVSLineThickness.values());
+    CONSTANTS.put("Icon", GVSIcon.values());
+  }
+
+  private final DataInputStream input;
+
+  BinaryDocumentDecoder(InputStream pInput) {
+    this.input = new DataInputStream(pInput);
+  }
+
+  void decode(DocumentEncoder pTarget) throws IOException {
+    for (byte magic : BinaryDocumentWriter.MAGIC) {
+      if (input.readByte() != magic) {
+        throw new IOException("Not a binary GVS document");
+      }
+    }
+    if (input.readUnsignedByte() != BinaryDocumentWriter.VERSION) {
+      throw new IOException("Unknown version");
+    }
+    pTarget.startDocument();
+    int token;
+    while ((token = input.read()) != -1) {
+      switch (token) {
+      case BinaryDocumentWriter.START:
+        pTarget.startElement(readName());
+        break;
+      case BinaryDocumentWriter.END:
+        pTarget.endElement();
+        break;
+      case BinaryDocumentWriter.ATTRIBUTE:
+        String attribute = readName();
+        if (input.readUnsignedByte() == BinaryDocumentWriter.NUMBER) {
+          pTarget.attribute(attribute, readNumber());
+        } else {
+          pTarget.attribute(attribute, readString());
+        }
+        break;
+      case BinaryDocumentWriter.TEXT:
+        input.readUnsignedByte();
+        pTarget.text(readString());
+        break;
+      case BinaryDocumentWriter.ELEMENT:
+        readElement(pTarget);
+        break;
+      default:
+        throw new IOException("Unknown token " + token);
+      }
+    }
+    pTarget.endDocument();
+  }
+
+  private void readElement(DocumentEncoder pTarget) throws IOException {
+    String name = readName();
+    int type = input.readUnsignedByte();
+    switch (type) {
+    case BinaryDocumentWriter.NUMBER:
+      pTarget.element(name, readNumber());
+      break;
+    case BinaryDocumentWriter.DECIMAL:
+      pTarget.element(name, input.readDouble());
+      break;
+    case BinaryDocumentWriter.CONSTANT:
+      pTarget.element(name, CONSTANTS.get(name)[(int) readVarint()]);
+      break;
+    default:
+      pTarget.element(name, readString());
+      break;
+    }
+  }
+
+  private String readName() throws IOException {
+    int code = input.readUnsignedByte();
+    if (code == 0) {
+      input.readUnsignedByte();
+      return readString();
+    }
+    return BinaryDocumentWriter.NAMES[code - 1];
+  }
+
+  private long readNumber() throws IOException {
+    long value = readVarint();
+    return (value >>> 1) ^ -(value & 1);
+  }
+
+  private String readString() throws IOException {
+    byte[] bytes = new byte[(int) readVarint()];
+    input.readFully(bytes);
+    return new String(bytes, StandardCharsets.UTF_8);
+  }
+
+  private long readVarint() throws IOException {
+    long value = 0;
+    int shift = 0;
+    int data;
+    do {
+      data = input.readUnsignedByte();
+      value |= (long) (data & 0x7F) << shift;
+      shift += 7;
+    } while ((data & 0x80) != 0);
+    return value;
+  }
+}
@@ -0,0 +1,72 @@
+package gvs.access;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+import org.junit.jupiter.api.Test;
+
+import gvs.business.styles.GVSColor;
+import gvs.business.styles.GVSIcon;
+import gvs.business.styles.GVSLineStyle;
+import gvs.business.styles.GVSLineThickness;
+
+/**
+ * Tests, that the binary encoding describes the same document as the XML
+ * encoding
+ */
+class BinaryDocumentWriterTest {
+
+  private static void writeGraph(DocumentEncoder pWriter) throws IOException {
+    pWriter.startDocument();
+    pWriter.startElement("GVS");
+    pWriter.startElement("Graph");
+    pWriter.attribute("Id", 1792294819177L);
+    pWriter.element("Label", "Gr\u00e4ph <&> \"\u20ac\"");
+    pWriter.endElement();
+    pWriter.startElement("Vertizes");
+    pWriter.startElement("RelativVertex");
+    pWriter.attribute("Id", -1589412860);
+    pWriter.element("Label", (String) null);
+    pWriter.element("Linecolor", GVSColor.RED);
+    pWriter.element("Linestyle", GVSLineStyle.DOTTED);
+    pWriter.element("Linethickness", GVSLineThickness.BOLD);
+    pWriter.element("Fillcolor", GVSColor.STANDARD);
+    pWriter.element("Icon", GVSIcon.BUG);
+    pWriter.element("XPos", 12.5);
+    pWriter.element("YPos", -0.1);
+    pWriter.endElement();
+    pWriter.endElement();
+    pWriter.startElement("Edges");
+    pWriter.startElement("Edge");
+    pWriter.attribute("Id", 4242);
+    pWriter.attribute("IsDirected", "false");
+    pWriter.attribute("DrawArrowOnPosition", 1);
+    pWriter.element("FromVertex", Integer.MIN_VALUE);
+    pWriter.element("ToVertex", Integer.MAX_VALUE);
+    pWriter.endElement();
+    pWriter.startElement("Unknown");
+    pWriter.text("text");
+    pWriter.endDocument();
+  }
+
+  @Test
+  void decodesToTheXmlDocument() throws IOException {
+    ByteArrayOutputStream xml = new ByteArrayOutputStream();
+    writeGraph(new XMLDocumentWriter(xml));
+
+    ByteArrayOutputStream binary = new ByteArrayOutputStream();
+    writeGraph(new BinaryDocumentWriter(binary));
+    ByteArrayOutputStream decoded = new ByteArrayOutputStream();
+    new BinaryDocumentDecoder(new ByteArrayInputStream(binary.toByteArray()))
+        .decode(new XMLDocumentWriter(decoded));
+
+    assertEquals(xml.toString(StandardCharsets.UTF_8.name()),
+        decoded.toString(StandardCharsets.UTF_8.name()));
+    assertTrue(binary.size() < xml.size() / 2);
+  }
+}
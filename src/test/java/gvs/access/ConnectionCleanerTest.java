@@ -0,0 +1,49 @@
+package gvs.access;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * Tests the release of closed and unreachable owners. An unreachable owner
+ * is simulated by enqueuing its reference, so the tests do not depend on the
+ * garbage collector.
+ */
+class ConnectionCleanerTest {
+
+  private final ConnectionCleaner cleaner = ConnectionCleaner.getInstance();
+
+  @Test
+  void runsActionOnce() {
+    AtomicInteger calls = new AtomicInteger();
+    Object owner = new Object();
+    ConnectionCleaner.Cleanable cleanable = cleaner.register(owner,
+        calls::incrementAndGet);
+
+    cleanable.clean();
+    cleanable.clean();
+    assertEquals(1, calls.get());
+  }
+
+  @Test
+  void runsActionOfEnqueuedOwner() throws InterruptedException {
+    AtomicInteger calls = new AtomicInteger();
+    CountDownLatch released = new CountDownLatch(1);
+    Object owner = new Object();
+    ConnectionCleaner.Cleanable cleanable = cleaner.register(owner, () -> {
+      calls.incrementAndGet();
+      released.countDown();
+    });
+
+    // Enqueued like by the garbage collector, once the owner is unreachable
+    assertTrue(cleanable.enqueue());
+    assertTrue(released.await(5, TimeUnit.SECONDS));
+    cleanable.clean();
+    assertEquals(1, calls.get());
+  }
+}
@@ -0,0 +1,56 @@
+package gvs.access;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.nio.charset.StandardCharsets;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * Tests the adaptation of the compression level to the link
+ */
+class FrameCompressorTest {
+
+  private static final long SECOND = 1000000000L;
+
+  @Test
+  void followsThroughputOfLink() throws Exception {
+    FrameCompressor compressor = new FrameCompressor(Compression.DEFLATE);
+    assertEquals(Deflater.BEST_SPEED, compressor.getLevel());
+
+    // 1 MB/s
+    compressor.adapt(1000000, SECOND);
+    assertEquals(Deflater.BEST_COMPRESSION, compressor.getLevel());
+    byte[] document = "<GVS><Graph Id=\"1\"/></GVS>"
+        .getBytes(StandardCharsets.UTF_8);
+    assertArrayEquals(document, inflate(compressor.compress(document,
+        document.length), document.length));
+
+    // The average moves through the medium level to the fast one
+    compressor.adapt(50000000, SECOND);
+    assertEquals(4, compressor.getLevel());
+    for (int frame = 0; frame < 5; frame++) {
+      compressor.adapt(1000000000, SECOND);
+    }
+    assertEquals(Deflater.BEST_SPEED, compressor.getLevel());
+
+    // One slow write does not change the level of a fast link
+    compressor.adapt(1000000, SECOND);
+    assertEquals(Deflater.BEST_SPEED, compressor.getLevel());
+    compressor.end();
+  }
+
+  private byte[] inflate(byte[] pData, int pLength)
+      throws DataFormatException {
+    Inflater inflater = new Inflater();
+    inflater.setInput(pData);
+    byte[] result = new byte[pLength];
+    assertEquals(pLength, inflater.inflate(result));
+    inflater.end();
+    return result;
+  }
+}
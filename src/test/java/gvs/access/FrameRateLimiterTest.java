@@ -0,0 +1,95 @@
+package gvs.access;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * Tests the skipped displays and their trailing send. The time is advanced
+ * by the tests, the trailing sends are run when they are due.
+ */
+class FrameRateLimiterTest {
+
+  private static final long MILLIS = TimeUnit.MILLISECONDS.toNanos(1);
+
+  private long now = 0;
+  private final List<Runnable> tasks = new ArrayList<>();
+  private final List<Long> dueTimes = new ArrayList<>();
+  private final AtomicInteger sent = new AtomicInteger();
+
+  private final FrameRateLimiter limiter = new FrameRateLimiter(
+      sent::incrementAndGet, () -> now, (pTask, pDelay) -> {
+        tasks.add(pTask);
+        dueTimes.add(now + pDelay);
+      });
+
+  @Test
+  void sendsLatestSkippedDisplayAfterInterval() {
+    limiter.setMaxFramesPerSecond(2);
+
+    assertTrue(limiter.tryAcquire());
+    for (int frame = 1; frame < 100; frame++) {
+      now += MILLIS;
+      assertFalse(limiter.tryAcquire());
+    }
+    assertEquals(99, limiter.getSkippedFrames());
+
+    // One trailing send for the whole burst, at the end of the interval
+    assertEquals(1, tasks.size());
+    assertEquals(500 * MILLIS, (long) dueTimes.get(0));
+    runDueTasks(500 * MILLIS);
+    assertEquals(1, sent.get());
+    assertTrue(tasks.isEmpty());
+    assertFalse(limiter.flush());
+
+    // The trailing send started a new interval
+    now += 100 * MILLIS;
+    assertFalse(limiter.tryAcquire());
+    runDueTasks(1000 * MILLIS);
+    assertEquals(2, sent.get());
+  }
+
+  @Test
+  void skipsTrailingSendAfterFlush() {
+    limiter.setMaxFramesPerSecond(10);
+
+    assertTrue(limiter.tryAcquire());
+    assertFalse(limiter.tryAcquire());
+    assertTrue(limiter.flush());
+    runDueTasks(100 * MILLIS);
+    assertEquals(0, sent.get());
+  }
+
+  @Test
+  void postponesTrailingSendOfExtendedInterval() {
+    limiter.setMaxFramesPerSecond(10);
+
+    assertTrue(limiter.tryAcquire());
+    assertFalse(limiter.tryAcquire());
+    limiter.setMaxFramesPerSecond(5);
+    runDueTasks(100 * MILLIS);
+    assertEquals(0, sent.get());
+    assertEquals(200 * MILLIS, (long) dueTimes.get(0));
+    runDueTasks(200 * MILLIS);
+    assertEquals(1, sent.get());
+  }
+
+  /**
+   * Advances the time and runs the trailing sends due until then
+   */
+  private void runDueTasks(long pTime) {
+    now = pTime;
+    while (!tasks.isEmpty() && dueTimes.get(0) <= now) {
+      Runnable task = tasks.remove(0);
+      dueTimes.remove(0);
+      task.run();
+    }
+  }
+}
@@ -0,0 +1,161 @@
+package gvs.access;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Server for the tests, which accepts every reservation, by default with a
+ * plain "OK", and records the received documents in their order. Binary
+ * documents are recorded as the XML documents they describe.
+ */
+public class GVSTestServer implements AutoCloseable {
+
+  private static final long TIMEOUT = TimeUnit.SECONDS.toMillis(5);
+  // "rele" of "releaseGVS" read as length
+  private static final int RELEASE = 0x72656c65;
+
+  private final ServerSocket serverSocket;
+  private final String[] answers;
+  private final List<String> documents = new ArrayList<>();
+  private int connections = 0;
+
+  public GVSTestServer() throws IOException {
+    this("OK");
+  }
+
+  /**
+   * @param pAnswers
+   *          answers to the reservations in their order, e.g. "OK
+   *          delta=true". The last one answers the further reservations
+   */
+  public GVSTestServer(String... pAnswers) throws IOException {
+    answers = pAnswers;
+    serverSocket = new ServerSocket(0, 50, InetAddress.getLoopbackAddress());
+    Thread acceptor = new Thread(this::accept, "GVS-TestServer");
+    acceptor.setDaemon(true);
+    acceptor.start();
+  }
+
+  /**
+   * @return a new connection to this server
+   */
+  public XMLConnection createConnection() {
+    return new XMLConnection(
+        serverSocket.getInetAddress().getHostAddress(),
+        serverSocket.getLocalPort());
+  }
+
+  /**
+   * Waits for the documents
+   *
+   * @param pCount
+   *          number of documents
+   * @return the first documents received
+   * @throws IllegalStateException
+   *           if they are not received in time
+   */
+  public synchronized List<String> awaitDocuments(int pCount)
+      throws InterruptedException {
+    long end = System.currentTimeMillis() + TIMEOUT;
+    while (documents.size() < pCount) {
+      long remaining = end - System.currentTimeMillis();
+      if (remaining <= 0) {
+        throw new IllegalStateException("Received " + documents.size()
+            + " of " + pCount + " documents");
+      }
+      wait(remaining);
+    }
+    return new ArrayList<>(documents.subList(0, pCount));
+  }
+
+  /**
+   * @return number of answered reservations
+   */
+  public synchronized int getConnectionCount() {
+    return connections;
+  }
+
+  public void close() throws IOException {
+    serverSocket.close();
+  }
+
+  private void accept() {
+    while (!serverSocket.isClosed()) {
+      try {
+        Socket socket = serverSocket.accept();
+        Thread reader = new Thread(() -> read(socket), "GVS-TestReader");
+        reader.setDaemon(true);
+        reader.start();
+      } catch (IOException e) {
+        // Closed
+      }
+    }
+  }
+
+  private void read(Socket pSocket) {
+    try (Socket socket = pSocket;
+        BufferedReader reader = new BufferedReader(new InputStreamReader(
+            socket.getInputStream(), StandardCharsets.UTF_8))) {
+      reader.readLine();
+      String answer;
+      synchronized (this) {
+        answer = answers[Math.min(connections, answers.length - 1)];
+        connections++;
+      }
+      PrintStream out = new PrintStream(socket.getOutputStream(), true,
+          "UTF-8");
+      out.println(answer);
+      if (answer.contains("encoding=binary")) {
+        // Nothing is sent before the answer, so the reader buffers nothing
+        readBinary(new DataInputStream(socket.getInputStream()));
+        return;
+      }
+      StringBuilder document = new StringBuilder();
+      String line;
+      while ((line = reader.readLine()) != null) {
+        if (line.equals("releaseGVS")) {
+          continue;
+        }
+        if (!line.endsWith(";")) {
+          document.append(line).append('\n');
+          continue;
+        }
+        document.append(line, 0, line.length() - 1);
+        add(document.toString().trim());
+        document.setLength(0);
+      }
+    } catch (IOException e) {
+      // Connection closed by the client
+    }
+  }
+
+  private void readBinary(DataInputStream pInput) throws IOException {
+    int length;
+    // The release is sent as line after the length prefixed documents
+    while ((length = pInput.readInt()) != RELEASE) {
+      byte[] frame = new byte[length];
+      pInput.readFully(frame);
+      ByteArrayOutputStream xml = new ByteArrayOutputStream();
+      new BinaryDocumentDecoder(new ByteArrayInputStream(frame))
+          .decode(new XMLDocumentWriter(xml));
+      add(xml.toString(StandardCharsets.UTF_8.name()).trim());
+    }
+  }
+
+  private synchronized void add(String pDocument) {
+    documents.add(pDocument);
+    notifyAll();
+  }
+}
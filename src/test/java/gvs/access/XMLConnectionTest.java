@@ -0,0 +1,55 @@
+package gvs.access;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+
+import java.io.StringWriter;
+
+import org.dom4j.Document;
+import org.dom4j.DocumentHelper;
+import org.dom4j.Element;
+import org.dom4j.io.XMLWriter;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Tests the reservation of the connection and the sent documents
+ */
+class XMLConnectionTest {
+
+  @Test
+  void reservesAgainAfterFailure() throws Exception {
+    try (GVSTestServer server = new GVSTestServer("FAILED")) {
+      XMLConnection connection = server.createConnection();
+
+      assertFalse(connection.ensureConnected());
+      assertFalse(connection.isConnected());
+      assertFalse(connection.ensureConnected());
+      assertEquals(2, server.getConnectionCount());
+    }
+  }
+
+  @Test
+  void sendsFileLikeDom4j() throws Exception {
+    Document document = DocumentHelper.createDocument();
+    Element graph = document.addElement("GVS").addElement("Graph");
+    graph.addAttribute("Id", "7");
+    graph.addElement("GraphLabel").setText("<file> & \"text\"");
+    graph.addElement("Vertizes").addElement("DefaultVertex")
+        .addAttribute("Id", "1").addCDATA("a < b");
+    StringWriter expected = new StringWriter();
+    XMLWriter dom4j = new XMLWriter(expected);
+    dom4j.write(document);
+    dom4j.flush();
+
+    try (GVSTestServer server = new GVSTestServer()) {
+      XMLConnection connection = server.createConnection();
+      connection.sendFile(document);
+      connection.disconnectFromServer();
+
+      // CDATA is sent as escaped text
+      assertEquals(expected.toString().trim()
+          .replace("<![CDATA[a < b]]>", "a &lt; b"),
+          server.awaitDocuments(1).get(0));
+    }
+  }
+}
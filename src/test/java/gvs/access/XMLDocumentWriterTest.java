@@ -0,0 +1,52 @@
+package gvs.access;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+import org.dom4j.Document;
+import org.dom4j.DocumentHelper;
+import org.dom4j.Element;
+import org.dom4j.io.XMLWriter;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Tests, that the streamed documents correspond to the ones of dom4j
+ */
+class XMLDocumentWriterTest {
+
+  private static final String TEXT = "a\u0001b\tc\nd\re\u001f' \"<>& "
+      + "\u00e4\u20ac\ud83d\ude00";
+
+  @Test
+  void escapesLikeDom4j() throws IOException {
+    Document document = DocumentHelper.createDocument();
+    Element root = document.addElement("GVS");
+    Element graph = root.addElement("Graph");
+    graph.addAttribute("Id", "42");
+    graph.addAttribute("Name", TEXT);
+    graph.addElement("Label").setText(TEXT);
+    root.addElement("Vertizes");
+    ByteArrayOutputStream expected = new ByteArrayOutputStream();
+    XMLWriter dom4j = new XMLWriter(expected);
+    dom4j.write(document);
+    dom4j.flush();
+
+    ByteArrayOutputStream actual = new ByteArrayOutputStream();
+    XMLDocumentWriter writer = new XMLDocumentWriter(actual);
+    writer.startDocument();
+    writer.startElement("GVS");
+    writer.startElement("Graph");
+    writer.attribute("Id", 42);
+    writer.attribute("Name", TEXT);
+    writer.element("Label", TEXT);
+    writer.endElement();
+    writer.startElement("Vertizes");
+    writer.endDocument();
+
+    assertEquals(expected.toString(StandardCharsets.UTF_8.name()),
+        actual.toString(StandardCharsets.UTF_8.name()));
+  }
+}
@@ -0,0 +1,79 @@
+package gvs.access;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * Tests the handover of documents through the ring
+ */
+class XMLFrameRingTest {
+
+  @Test
+  void consumesInOrderOfClaims() {
+    XMLFrameRing ring = new XMLFrameRing(4);
+    XMLFrameRing.Slot first = ring.claim();
+    XMLFrameRing.Slot second = ring.claim();
+    second.getBuffer().write(2);
+    ring.publish(second, true);
+    // The second slot waits for the first one
+    assertFalse(ring.hasPublished());
+    assertEquals(0, ring.poll());
+
+    first.getBuffer().write(1);
+    ring.publish(first, false);
+    assertEquals(2, ring.poll());
+    assertEquals(first, ring.getBatch()[0]);
+    assertEquals(second, ring.getBatch()[1]);
+    assertFalse(ring.getBatch()[0].isValid());
+    assertEquals(2, ring.getBatch()[1].getData()[0]);
+    ring.complete(first, false);
+    ring.complete(second, true);
+
+    assertFalse(ring.await(first));
+    assertTrue(ring.await(second));
+    assertFalse(ring.hasPublished());
+  }
+
+  @Test
+  void reusesSlotsOfManyProducers() throws InterruptedException {
+    XMLFrameRing ring = new XMLFrameRing(2);
+    AtomicInteger sent = new AtomicInteger();
+    List<Thread> producers = new ArrayList<>();
+    for (int index = 0; index < 8; index++) {
+      Thread producer = new Thread(() -> {
+        for (int document = 0; document < 100; document++) {
+          XMLFrameRing.Slot slot = ring.claim();
+          slot.getBuffer().write(document);
+          ring.publish(slot, true);
+          if (ring.await(slot)) {
+            sent.incrementAndGet();
+          }
+        }
+      });
+      producers.add(producer);
+      producer.start();
+    }
+
+    int consumed = 0;
+    while (consumed < 800) {
+      int count = ring.poll();
+      for (int index = 0; index < count; index++) {
+        assertEquals(1, ring.getBatch()[index].getLength());
+        ring.complete(ring.getBatch()[index], true);
+      }
+      consumed += count;
+      Thread.yield();
+    }
+    for (Thread producer : producers) {
+      producer.join();
+    }
+    assertEquals(800, sent.get());
+  }
+}
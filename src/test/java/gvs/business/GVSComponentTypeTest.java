@@ -0,0 +1,53 @@
+package gvs.business;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import org.junit.jupiter.api.Test;
+
+import gvs.business.graph.GVSRelativeVertex;
+import gvs.business.styles.GVSStyle;
+
+/**
+ * Tests the type dispatch of GVS components
+ */
+class GVSComponentTypeTest {
+
+  private static class RelativeVertex implements GVSRelativeVertex {
+    public String getGVSVertexLabel() {
+      return "vertex";
+    }
+
+    public GVSStyle getStyle() {
+      return null;
+    }
+
+    public double getX() {
+      return 0;
+    }
+
+    public double getY() {
+      return 0;
+    }
+  }
+
+  private static class SubclassedVertex extends RelativeVertex {
+  }
+
+  @Test
+  void resolvesDirectImplementation() {
+    assertEquals(GVSComponentType.RELATIVE_VERTEX,
+        GVSComponentType.of(new RelativeVertex()));
+  }
+
+  @Test
+  void resolvesImplementationOfSuperclass() {
+    assertEquals(GVSComponentType.RELATIVE_VERTEX,
+        GVSComponentType.of(new SubclassedVertex()));
+  }
+
+  @Test
+  void unknownForNullAndForeignObjects() {
+    assertEquals(GVSComponentType.UNKNOWN, GVSComponentType.of(null));
+    assertEquals(GVSComponentType.UNKNOWN, GVSComponentType.of("vertex"));
+  }
+}
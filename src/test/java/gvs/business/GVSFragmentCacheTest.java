@@ -0,0 +1,61 @@
+package gvs.business;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.Test;
+
+import gvs.access.DocumentEncoder;
+import gvs.access.XMLDocumentWriter;
+
+/**
+ * Tests the reuse and invalidation of the encoded elements
+ */
+class GVSFragmentCacheTest {
+
+  private final GVSFragmentCache cache = new GVSFragmentCache();
+  private final AtomicInteger builds = new AtomicInteger();
+
+  private String display(String pLabel, int pVersion) throws IOException {
+    ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+    DocumentEncoder writer = new XMLDocumentWriter(buffer);
+    cache.begin(writer, 1);
+    writer.startElement("Vertizes");
+    cache.write(writer, 1, pVersion, fragment -> {
+      builds.incrementAndGet();
+      fragment.startElement("DefaultVertex");
+      fragment.attribute("Id", 1);
+      fragment.element("Label", pLabel);
+      return true;
+    });
+    writer.endDocument();
+    cache.sweep();
+    return new String(buffer.toByteArray(), StandardCharsets.UTF_8);
+  }
+
+  @Test
+  void reusesFragmentUntilDirty() throws IOException {
+    String expected = "<Vertizes><DefaultVertex Id=\"1\"><Label>a&amp;b"
+        + "</Label></DefaultVertex></Vertizes>";
+    assertEquals(expected, display("a&b", 0));
+    assertEquals(expected, display("changed", 0));
+    assertEquals(1, builds.get());
+
+    cache.markDirty(1);
+    assertEquals(expected.replace("a&amp;b", "changed"),
+        display("changed", 0));
+    assertEquals(2, builds.get());
+  }
+
+  @Test
+  void encodesAgainIfVersionChanged() throws IOException {
+    display("first", 0);
+    assertEquals("<Vertizes><DefaultVertex Id=\"1\"><Label>second</Label>"
+        + "</DefaultVertex></Vertizes>", display("second", 1));
+    assertEquals(2, builds.get());
+  }
+}
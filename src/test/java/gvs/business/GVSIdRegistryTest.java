@@ -0,0 +1,84 @@
+package gvs.business;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * Tests the ids handed out by the registry
+ */
+class GVSIdRegistryTest {
+
+  private static class Element {
+    @Override
+    public int hashCode() {
+      return 42;
+    }
+
+    @Override
+    public boolean equals(Object pObject) {
+      return pObject instanceof Element;
+    }
+  }
+
+  @Test
+  void separatesEqualElements() {
+    GVSIdRegistry registry = new GVSIdRegistry();
+    Element first = new Element();
+    Element second = new Element();
+
+    assertEquals(1, registry.idOf(first));
+    assertEquals(2, registry.idOf(second));
+    assertEquals(1, registry.idOf(first));
+  }
+
+  @Test
+  void keepsIdsWhileGrowing() {
+    GVSIdRegistry registry = new GVSIdRegistry();
+    Object[] elements = new Object[1000];
+    for (int index = 0; index < elements.length; index++) {
+      elements[index] = new Object();
+      assertEquals(index + 1, registry.idOf(elements[index]));
+    }
+    for (int index = 0; index < elements.length; index++) {
+      assertEquals(index + 1, registry.idOf(elements[index]));
+    }
+  }
+
+  @Test
+  void sweepsUnusedElementsWithoutReusingIds() {
+    GVSIdRegistry registry = new GVSIdRegistry();
+    Object kept = new Object();
+    Object removed = new Object();
+    registry.idOf(kept);
+    registry.idOf(removed);
+    registry.sweep();
+
+    registry.idOf(kept);
+    registry.sweep();
+
+    assertEquals(1, registry.size());
+    assertEquals(1, registry.idOf(kept));
+    assertNotEquals(2, registry.idOf(removed));
+  }
+
+  @Test
+  void removesElementsWithoutLosingOthers() {
+    GVSIdRegistry registry = new GVSIdRegistry();
+    Object[] elements = new Object[1000];
+    for (int index = 0; index < elements.length; index++) {
+      elements[index] = new Object();
+      registry.idOf(elements[index]);
+    }
+    for (int index = 0; index < elements.length; index += 2) {
+      registry.remove(elements[index]);
+    }
+
+    assertEquals(500, registry.size());
+    for (int index = 0; index < elements.length; index++) {
+      assertEquals(index % 2 == 0 ? 0 : index + 1,
+          registry.find(elements[index]));
+    }
+  }
+}
@@ -0,0 +1,68 @@
+package gvs.business;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * Tests the evaluation and invalidation of the cached labels
+ */
+class GVSLabelCacheTest {
+
+  @Test
+  void evaluatesOnceUntilDirty() {
+    GVSLabelCache cache = new GVSLabelCache();
+    AtomicInteger calls = new AtomicInteger();
+    StringBuilder element = new StringBuilder("first");
+    List<StringBuilder> elements = Collections.singletonList(element);
+
+    for (int display = 0; display < 3; display++) {
+      cache.evaluate(elements, value -> {
+        calls.incrementAndGet();
+        return value.toString();
+      }, value -> null);
+    }
+    element.replace(0, element.length(), "second");
+    assertEquals("first", cache.labelOf(element));
+    assertEquals(1, calls.get());
+
+    cache.markDirty(element);
+    cache.evaluate(elements, StringBuilder::toString, value -> null);
+    assertEquals("second", cache.labelOf(element));
+  }
+
+  @Test
+  void evaluatesInParallel() {
+    GVSLabelCache cache = new GVSLabelCache();
+    cache.setParallel(true);
+    List<Object> elements = new ArrayList<>();
+    for (int index = 0; index < 10000; index++) {
+      elements.add(new Object());
+    }
+    cache.evaluate(elements, value -> "Label " + value.hashCode(),
+        value -> null);
+
+    for (Object element : elements) {
+      assertEquals("Label " + element.hashCode(), cache.labelOf(element));
+    }
+  }
+
+  @Test
+  void sweepsElementsNotEvaluated() {
+    GVSLabelCache cache = new GVSLabelCache();
+    Object removed = new Object();
+    cache.evaluate(Collections.singletonList(removed), String::valueOf,
+        value -> null);
+    cache.sweep();
+    cache.evaluate(Collections.emptyList(), String::valueOf, value -> null);
+    cache.sweep();
+
+    assertThrows(IllegalStateException.class, () -> cache.labelOf(removed));
+  }
+}
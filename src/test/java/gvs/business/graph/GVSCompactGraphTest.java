@@ -0,0 +1,74 @@
+package gvs.business.graph;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import org.junit.jupiter.api.Test;
+
+import gvs.business.styles.GVSColor;
+import gvs.business.styles.GVSLineStyle;
+import gvs.business.styles.GVSLineThickness;
+import gvs.business.styles.GVSStyle;
+
+/**
+ * Tests the adjacency arrays and styles of the compact graph
+ */
+class GVSCompactGraphTest {
+
+  @Test
+  void sortsEdgesByStartVertex() {
+    try (GVSCompactGraph graph = new GVSCompactGraph("compact", true)) {
+      for (int vertex = 0; vertex < 3; vertex++) {
+        graph.addVertex("v" + vertex, 0);
+      }
+      graph.addEdge(2, 0, 0);
+      graph.addEdge(0, 1, 0);
+      graph.addEdge(0, 2, 0);
+      assertEquals(2, graph.getOutDegree(0));
+      assertEquals(0, graph.getOutDegree(1));
+
+      // Edges added after a compaction follow the existing ones
+      int added = graph.addVertex(null, 0);
+      graph.addEdge(0, added, 0);
+      assertEquals(4, graph.getEdgeCount());
+      assertEquals(3, graph.getOutDegree(0));
+      assertEquals(1, graph.getNeighbor(0, 0));
+      assertEquals(2, graph.getNeighbor(0, 1));
+      assertEquals(added, graph.getNeighbor(0, 2));
+      assertEquals(0, graph.getNeighbor(2, 0));
+      assertEquals(0, graph.getOutDegree(added));
+    }
+  }
+
+  @Test
+  void keepsEdgeIdsOverCompaction() {
+    try (GVSCompactGraph graph = new GVSCompactGraph("compact", true)) {
+      for (int vertex = 0; vertex < 3; vertex++) {
+        graph.addVertex("v" + vertex, 0);
+      }
+      graph.addEdge(2, 0, 0);
+      assertEquals(2, graph.getEdgeId(2, 0));
+
+      // Sorted before the first edge, but numbered after it
+      graph.addEdge(0, 1, 0);
+      assertEquals(4, graph.getEdgeId(0, 0));
+      assertEquals(2, graph.getEdgeId(2, 0));
+    }
+  }
+
+  @Test
+  void registersStylesOnce() {
+    try (GVSCompactGraph graph = new GVSCompactGraph("compact", false)) {
+      GVSStyle style = new GVSStyle(GVSColor.RED, GVSLineStyle.DASHED,
+          GVSLineThickness.FAT);
+      assertEquals(0, graph.addStyle(null));
+      assertEquals(1, graph.addStyle(style));
+      assertEquals(1, graph.addStyle(style));
+
+      assertThrows(IllegalArgumentException.class,
+          () -> graph.addVertex("v", 2));
+      assertThrows(IllegalArgumentException.class,
+          () -> graph.addEdge(0, 1, 0));
+    }
+  }
+}
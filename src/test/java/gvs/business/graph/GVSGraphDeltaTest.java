@@ -0,0 +1,142 @@
+package gvs.business.graph;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.junit.jupiter.api.Test;
+
+import gvs.access.GVSTestServer;
+import gvs.access.XMLConnection;
+import gvs.business.styles.GVSStyle;
+
+/**
+ * Tests the documents sent in delta mode
+ */
+class GVSGraphDeltaTest {
+
+  private static final String DELTA = "OK delta=true";
+
+  @Test
+  void sendsChangesAndFullGraphAfterReconnect() throws Exception {
+    try (GVSTestServer server = new GVSTestServer(DELTA)) {
+      XMLConnection connection = server.createConnection();
+      GVSGraph graph = new GVSGraph("delta", connection);
+      graph.setDeltaMode(true);
+      Vertex first = new Vertex("first");
+      Vertex second = new Vertex("second");
+      graph.add(first);
+      graph.add(second);
+      graph.display();
+
+      graph.remove(second);
+      graph.add(new Vertex("third"));
+      graph.display();
+
+      connection.disconnectFromServer();
+      graph.display();
+      graph.disconnect();
+
+      List<String> documents = server.awaitDocuments(3);
+      String full = documents.get(0);
+      assertFalse(full.contains("Delta="));
+      assertTrue(full.contains("<Label>first</Label>"));
+
+      // Only the new vertex and the id of the removed one
+      String delta = documents.get(1);
+      assertTrue(delta.contains("Delta=\"true\""));
+      assertTrue(delta.contains("<RemovedVertizes><Id>" + idOf(full, "second")
+          + "</Id></RemovedVertizes>"));
+      assertTrue(delta.contains("<Label>third</Label>"));
+      assertFalse(delta.contains("<Label>first</Label>"));
+
+      String reconnected = documents.get(2);
+      assertEquals(2, server.getConnectionCount());
+      assertFalse(reconnected.contains("Delta="));
+      assertTrue(reconnected.contains("<Label>first</Label>"));
+      assertTrue(reconnected.contains("<Label>third</Label>"));
+      assertFalse(reconnected.contains("<Label>second</Label>"));
+    }
+  }
+
+  @Test
+  void evaluatesOnlyRecordedChanges() throws Exception {
+    try (GVSTestServer server = new GVSTestServer(DELTA)) {
+      GVSGraph graph = new GVSGraph("changes", server.createConnection());
+      graph.setDeltaMode(true);
+      Vertex[] vertizes = new Vertex[100];
+      for (int index = 0; index < vertizes.length; index++) {
+        vertizes[index] = new Vertex("v" + index);
+        graph.add(vertizes[index]);
+      }
+      graph.display();
+      int calls = vertizes[0].calls;
+
+      vertizes[7].label = "changed";
+      graph.markDirty(vertizes[7]);
+      graph.remove(vertizes[8]);
+      graph.display();
+      graph.disconnect();
+      // The labels of the unchanged vertizes are not evaluated again
+      for (int index = 0; index < vertizes.length; index++) {
+        if (index != 7) {
+          assertEquals(calls, vertizes[index].calls);
+        }
+      }
+      assertTrue(vertizes[7].calls > calls);
+
+      String delta = server.awaitDocuments(2).get(1);
+      assertTrue(delta.contains("<Label>changed</Label>"));
+      assertEquals(1, delta.split("<DefaultVertex ").length - 1);
+      assertTrue(delta.contains("<RemovedVertizes><Id>"));
+    }
+  }
+
+  @Test
+  void sendsFullGraphsWithoutDeltaOfServer() throws Exception {
+    try (GVSTestServer server = new GVSTestServer()) {
+      GVSGraph graph = new GVSGraph("full", server.createConnection());
+      graph.setDeltaMode(true);
+      graph.add(new Vertex("first"));
+      graph.display();
+      graph.add(new Vertex("second"));
+      graph.display();
+      graph.disconnect();
+
+      String second = server.awaitDocuments(2).get(1);
+      assertFalse(second.contains("Delta="));
+      assertTrue(second.contains("<Label>first</Label>"));
+      assertTrue(second.contains("<Label>second</Label>"));
+    }
+  }
+
+  private String idOf(String pDocument, String pLabel) {
+    Matcher matcher = Pattern
+        .compile("<DefaultVertex Id=\"(\\d+)\"><Label>" + pLabel + "<")
+        .matcher(pDocument);
+    assertTrue(matcher.find());
+    return matcher.group(1);
+  }
+
+  private static class Vertex implements GVSDefaultVertex {
+    private String label;
+    private int calls = 0;
+
+    Vertex(String pLabel) {
+      this.label = pLabel;
+    }
+
+    public String getGVSVertexLabel() {
+      calls++;
+      return label;
+    }
+
+    public GVSStyle getStyle() {
+      return null;
+    }
+  }
+}
@@ -0,0 +1,227 @@
+package gvs.business.graph;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.junit.jupiter.api.Test;
+
+import gvs.access.GVSTestServer;
+import gvs.access.XMLConnection;
+import gvs.business.styles.GVSColor;
+import gvs.business.styles.GVSLineStyle;
+import gvs.business.styles.GVSLineThickness;
+import gvs.business.styles.GVSStyle;
+
+/**
+ * Tests the removal of vertizes with their edges, the parallel serialization,
+ * the binary encoding and the check for mixed graphs
+ */
+class GVSGraphTest {
+
+  @Test
+  void removesEdgesWithTheirVertex() throws Exception {
+    try (GVSTestServer server = new GVSTestServer()) {
+      GVSGraph graph = new GVSGraph("cascade", server.createConnection());
+      Vertex first = new Vertex("first");
+      Vertex second = new Vertex("second");
+      Vertex third = new Vertex("third");
+      graph.add(new GVSDefaultVertex[] { first, second, third });
+      graph.add(new Edge(first, second, "a"));
+      graph.add(new Edge(second, third, "b"));
+      graph.add(new Edge(third, first, "c"));
+      graph.add(new Edge(second, second, "d"));
+
+      graph.remove(second);
+      // Added again without its edges
+      graph.add(second);
+      graph.display();
+      graph.disconnect();
+
+      String document = server.awaitDocuments(1).get(0);
+      Matcher matcher = Pattern.compile("<Edge .*?<Label>(\\w)</Label>")
+          .matcher(document);
+      assertTrue(matcher.find());
+      assertEquals("c", matcher.group(1));
+      assertFalse(matcher.find());
+      assertEquals(0, graph.getDroppedEdgeCount());
+    }
+  }
+
+  @Test
+  void serializesInParallelLikeSequential() throws Exception {
+    try (GVSTestServer server = new GVSTestServer()) {
+      GVSGraph graph = new GVSGraph("parallel", server.createConnection());
+      GVSStyle style = new GVSStyle(GVSColor.RED, GVSLineStyle.DASHED,
+          GVSLineThickness.FAT);
+      Vertex[] vertizes = new Vertex[5000];
+      for (int index = 0; index < vertizes.length; index++) {
+        vertizes[index] = new Vertex("<" + index + "&>");
+        graph.add(vertizes[index]);
+      }
+      for (int index = 1; index < vertizes.length; index++) {
+        graph.add(new Edge(vertizes[index - 1], vertizes[index],
+            index % 2 == 0 ? "even" : null) {
+          @Override
+          public GVSStyle getStyle() {
+            return style;
+          }
+        });
+      }
+      graph.display();
+      graph.setParallelSerialization(true);
+      graph.display();
+      graph.disconnect();
+
+      List<String> documents = server.awaitDocuments(2);
+      assertTrue(documents.get(0).contains("&lt;4999&amp;&gt;"));
+      assertEquals(documents.get(0), documents.get(1));
+    }
+  }
+
+  @Test
+  void sendsNoPartOfAFailedDocument() throws Exception {
+    try (GVSTestServer server = new GVSTestServer()) {
+      GVSGraph graph = new GVSGraph("failed", server.createConnection());
+      AtomicBoolean fail = new AtomicBoolean(true);
+      // More than the buffers of the writer and the socket
+      for (int index = 0; index < 1000; index++) {
+        graph.add(new Vertex("vertex " + index));
+      }
+      graph.add(new Vertex("last") {
+        @Override
+        public String getGVSVertexLabel() {
+          if (fail.getAndSet(false)) {
+            throw new IllegalStateException("Label not available");
+          }
+          return super.getGVSVertexLabel();
+        }
+      });
+      assertThrows(IllegalStateException.class, graph::display);
+      graph.display();
+      graph.disconnect();
+
+      String document = server.awaitDocuments(1).get(0);
+      assertTrue(document.startsWith("<?xml"));
+      assertEquals(document.indexOf("<GVS>"), document.lastIndexOf("<GVS>"));
+      assertTrue(document.contains("<Label>last</Label>"));
+      assertTrue(document.endsWith("</GVS>"));
+    }
+  }
+
+  @Test
+  void encodesBinaryLikeXml() throws Exception {
+    try (GVSTestServer server = new GVSTestServer("OK",
+        "OK encoding=binary")) {
+      XMLConnection connection = server.createConnection();
+      GVSGraph graph = new GVSGraph("Gr\u00e4ph <&>", connection);
+      GVSStyle style = new GVSStyle(GVSColor.RED, GVSLineStyle.DOTTED,
+          GVSLineThickness.BOLD);
+      Vertex first = new Vertex("first \"\u20ac\"");
+      Vertex second = new Vertex(null) {
+        @Override
+        public GVSStyle getStyle() {
+          return style;
+        }
+      };
+      graph.add(new GVSDefaultVertex[] { first, second });
+      graph.add(new Edge(first, second, "edge"));
+      graph.add(new Edge(second, second, null));
+      graph.display();
+      // The reservation of the next display negotiates the binary encoding
+      connection.disconnectFromServer();
+      graph.display();
+      graph.disconnect();
+
+      List<String> documents = server.awaitDocuments(2);
+      assertEquals(2, server.getConnectionCount());
+      assertTrue(documents.get(0).contains("<Linecolor>RED</Linecolor>"));
+      assertEquals(documents.get(0), documents.get(1));
+    }
+  }
+
+  @Test
+  void rejectsMixedVertizes() throws Exception {
+    try (GVSTestServer server = new GVSTestServer();
+        GVSGraph graph = new GVSGraph("mixed", server.createConnection())) {
+      Vertex vertex = new Vertex("default");
+      Position position = new Position("relative");
+      graph.add(vertex);
+      graph.add(vertex);
+      assertThrows(IllegalArgumentException.class, () -> graph.add(position));
+
+      // The count follows the removals
+      graph.remove(vertex);
+      graph.add(position);
+      assertThrows(IllegalArgumentException.class, () -> graph.add(vertex));
+      graph.remove(Arrays.asList((Object) position));
+      graph.add(vertex);
+    }
+  }
+
+  private static class Vertex implements GVSDefaultVertex {
+    private final String label;
+
+    Vertex(String pLabel) {
+      this.label = pLabel;
+    }
+
+    public String getGVSVertexLabel() {
+      return label;
+    }
+
+    public GVSStyle getStyle() {
+      return null;
+    }
+  }
+
+  private static class Position extends Vertex implements GVSRelativeVertex {
+
+    Position(String pLabel) {
+      super(pLabel);
+    }
+
+    public double getX() {
+      return 1;
+    }
+
+    public double getY() {
+      return 2;
+    }
+  }
+
+  private static class Edge implements GVSDirectedEdge {
+    private final GVSDefaultVertex start;
+    private final GVSDefaultVertex end;
+    private final String label;
+
+    Edge(GVSDefaultVertex pStart, GVSDefaultVertex pEnd, String pLabel) {
+      this.start = pStart;
+      this.end = pEnd;
+      this.label = pLabel;
+    }
+
+    public GVSDefaultVertex getGVSStartVertex() {
+      return start;
+    }
+
+    public GVSDefaultVertex getGVSEndVertex() {
+      return end;
+    }
+
+    public String getGVSEdgeLabel() {
+      return label;
+    }
+
+    public GVSStyle getStyle() {
+      return null;
+    }
+  }
+}
@@ -0,0 +1,116 @@
+package gvs.business.tree;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.jupiter.api.Test;
+
+import gvs.access.GVSTestServer;
+import gvs.business.styles.GVSStyle;
+
+/**
+ * Tests the detection of nodes reached twice and the check of deep trees
+ */
+class GVSTreeWithCollectionTest {
+
+  private static final int DEPTH = 100000;
+
+  @Test
+  void rejectsCycle() throws Exception {
+    try (GVSTestServer server = new GVSTestServer()) {
+      GVSTreeWithCollection tree = new GVSTreeWithCollection("cycle",
+          server.createConnection(), true);
+      Node first = new Node("cycle");
+      Node second = new Node("cycle", first);
+      first.children = new GVSDefaultTreeNode[] { second };
+      tree.add(new Node("root"));
+      tree.add(new GVSDefaultTreeNode[] { first, second });
+
+      // Both nodes of the cycle have a parent, none is reached from a root
+      IllegalStateException e = assertThrows(IllegalStateException.class,
+          tree::display);
+      assertTrue(e.getMessage().startsWith("Node 'cycle' (Id "));
+      assertTrue(e.getMessage().endsWith(
+          "is reached twice. The tree contains a cycle or a shared node"));
+      tree.disconnect();
+    }
+  }
+
+  @Test
+  void rejectsSharedNode() throws Exception {
+    try (GVSTestServer server = new GVSTestServer()) {
+      GVSTreeWithCollection tree = new GVSTreeWithCollection("shared",
+          server.createConnection(), true);
+      Node shared = new Node("shared");
+      Node left = new Node("left", shared);
+      Node right = new Node("right", shared);
+      tree.add(new GVSDefaultTreeNode[] { new Node("root", left, right), left,
+          right, shared });
+
+      IllegalStateException e = assertThrows(IllegalStateException.class,
+          tree::display);
+      assertTrue(e.getMessage().startsWith("Node 'shared' (Id "));
+      tree.disconnect();
+    }
+  }
+
+  @Test
+  void displaysDeepTreeOnSmallStack() throws Exception {
+    try (GVSTestServer server = new GVSTestServer()) {
+      GVSTreeWithCollection tree = new GVSTreeWithCollection("deep",
+          server.createConnection(), true);
+      List<Node> nodes = new ArrayList<>();
+      nodes.add(new Node("0"));
+      for (int depth = 1; depth < DEPTH; depth++) {
+        Node child = new Node(Integer.toString(depth));
+        nodes.get(depth - 1).children = new GVSDefaultTreeNode[] { child };
+        nodes.add(child);
+      }
+      tree.add(nodes);
+
+      AtomicReference<Throwable> failure = new AtomicReference<>();
+      Thread thread = new Thread(null, () -> {
+        try {
+          tree.display();
+          tree.disconnect();
+        } catch (Throwable t) {
+          failure.set(t);
+        }
+      }, "SmallStack", 128 * 1024);
+      thread.start();
+      thread.join();
+      assertNull(failure.get());
+
+      String document = server.awaitDocuments(1).get(0);
+      assertEquals(DEPTH, document.split("<DefaultNode ", -1).length - 1);
+    }
+  }
+
+  private static class Node implements GVSDefaultTreeNode {
+    private final String label;
+    private GVSDefaultTreeNode[] children;
+
+    Node(String pLabel, GVSDefaultTreeNode... pChildren) {
+      this.label = pLabel;
+      this.children = pChildren;
+    }
+
+    public GVSDefaultTreeNode[] getGVSChildNodes() {
+      return children;
+    }
+
+    public String getNodeLabel() {
+      return label;
+    }
+
+    public GVSStyle getStyle() {
+      return null;
+    }
+  }
+}
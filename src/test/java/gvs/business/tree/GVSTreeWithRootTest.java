@@ -0,0 +1,129 @@
+package gvs.business.tree;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.jupiter.api.Test;
+
+import gvs.access.GVSTestServer;
+import gvs.business.styles.GVSStyle;
+
+/**
+ * Tests the detection of nodes reached twice and the traversal of deep trees
+ */
+class GVSTreeWithRootTest {
+
+  private static final int DEPTH = 100000;
+
+  @Test
+  void rejectsCycle() throws Exception {
+    try (GVSTestServer server = new GVSTestServer()) {
+      GVSTreeWithRoot tree = new GVSTreeWithRoot("cycle",
+          server.createConnection(), true);
+      Node root = new Node("root");
+      Node child = new Node("child");
+      root.children = new GVSDefaultTreeNode[] { child };
+      child.children = new GVSDefaultTreeNode[] { root };
+      tree.setRoot(root);
+
+      IllegalStateException e = assertThrows(IllegalStateException.class,
+          tree::display);
+      assertTrue(e.getMessage().startsWith("Node 'root' (Id "));
+      assertTrue(e.getMessage().endsWith(
+          "is reached twice. The tree contains a cycle or a shared node"));
+      tree.disconnect();
+    }
+  }
+
+  @Test
+  void rejectsSharedNode() throws Exception {
+    try (GVSTestServer server = new GVSTestServer()) {
+      GVSTreeWithRoot tree = new GVSTreeWithRoot("shared",
+          server.createConnection(), true);
+      Node shared = new Node("shared");
+      Node left = new Node("left", shared);
+      Node right = new Node("right", shared);
+      tree.setRoot(new Node("root", left, right));
+
+      IllegalStateException e = assertThrows(IllegalStateException.class,
+          tree::display);
+      assertTrue(e.getMessage().startsWith("Node 'shared' (Id "));
+      tree.disconnect();
+    }
+  }
+
+  @Test
+  void reportsConnectionWithoutConnecting() throws Exception {
+    try (GVSTestServer server = new GVSTestServer()) {
+      GVSTreeWithRoot tree = new GVSTreeWithRoot("connected",
+          server.createConnection(), true);
+      tree.setRoot(new Node("root"));
+      assertFalse(tree.isConnected());
+      assertEquals(0, server.getConnectionCount());
+
+      tree.display();
+      assertTrue(tree.isConnected());
+      tree.disconnect();
+      assertFalse(tree.isConnected());
+    }
+  }
+
+  @Test
+  void displaysDeepTreeOnSmallStack() throws Exception {
+    try (GVSTestServer server = new GVSTestServer()) {
+      GVSTreeWithRoot tree = new GVSTreeWithRoot("deep",
+          server.createConnection(), true);
+      Node root = new Node("0");
+      Node leaf = root;
+      for (int depth = 1; depth < DEPTH; depth++) {
+        Node child = new Node(Integer.toString(depth));
+        leaf.children = new GVSDefaultTreeNode[] { child };
+        leaf = child;
+      }
+      tree.setRoot(root);
+
+      AtomicReference<Throwable> failure = new AtomicReference<>();
+      Thread thread = new Thread(null, () -> {
+        try {
+          tree.display();
+          tree.disconnect();
+        } catch (Throwable t) {
+          failure.set(t);
+        }
+      }, "SmallStack", 128 * 1024);
+      thread.start();
+      thread.join();
+      assertNull(failure.get());
+
+      String document = server.awaitDocuments(1).get(0);
+      assertEquals(DEPTH, document.split("<DefaultNode ", -1).length - 1);
+    }
+  }
+
+  private static class Node implements GVSDefaultTreeNode {
+    private final String label;
+    private GVSDefaultTreeNode[] children;
+
+    Node(String pLabel, GVSDefaultTreeNode... pChildren) {
+      this.label = pLabel;
+      this.children = pChildren;
+    }
+
+    public GVSDefaultTreeNode[] getGVSChildNodes() {
+      return children;
+    }
+
+    public String getNodeLabel() {
+      return label;
+    }
+
+    public GVSStyle getStyle() {
+      return null;
+    }
+  }
+}